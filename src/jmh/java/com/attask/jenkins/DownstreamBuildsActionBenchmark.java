@@ -0,0 +1,71 @@
+package com.attask.jenkins;
+
+import hudson.model.Job;
+import hudson.model.Result;
+import hudson.model.Run;
+import hudson.tasks.test.AbstractTestResultAction;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.*;
+
+/**
+ * Listing the downstream builds of an upstream with thousands of them, as the build page and remote API do.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DownstreamBuildsActionBenchmark {
+	@Param({"100", "1000", "5000"})
+	public int downstreamCount;
+
+	private DownstreamBuildsAction action;
+	//Keeps the stubbed runs strongly reachable so the action's soft references aren't cleared mid-benchmark.
+	private List<Run> runs;
+
+	@Setup
+	public void setUp() throws Exception {
+		Job job = mock(Job.class);
+		doReturn("downstream").when(job).getFullName();
+		doReturn("downstream").when(job).getFullDisplayName();
+		doReturn("job/downstream/").when(job).getUrl();
+
+		//Run's final methods (e.g. getFullDisplayName) can't be stubbed and read the project field directly,
+		//so the runs call their real methods against a stubbed job and only the non-final methods are stubbed.
+		Field projectField = Run.class.getDeclaredField("project");
+		projectField.setAccessible(true);
+
+		action = new DownstreamBuildsAction();
+		runs = new ArrayList<Run>(downstreamCount);
+		for(int i = 0; i < downstreamCount; i++) {
+			Run run = mock(Run.class, CALLS_REAL_METHODS);
+			projectField.set(run, job);
+			doReturn(job).when(run).getParent();
+			doReturn(i).when(run).getNumber();
+			doReturn("#" + i).when(run).getDisplayName();
+			doReturn(false).when(run).isBuilding();
+			doReturn(Result.SUCCESS).when(run).getResult();
+			doReturn(1000L).when(run).getDuration();
+			doReturn(null).when(run).getAction(AbstractTestResultAction.class);
+			runs.add(run);
+			action.addDownstreamBuild(run);
+		}
+	}
+
+	@Benchmark
+	public List<Run> getDownstreamBuilds() {
+		return action.getDownstreamBuilds();
+	}
+
+	@Benchmark
+	public List<DownstreamBuild> getDownstreamSummaries() {
+		return action.getDownstreamSummaries();
+	}
+}
@@ -0,0 +1,40 @@
+package com.attask.jenkins;
+
+import hudson.EnvVars;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Contributing injected properties to a build's environment, which happens every time the environment is built.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EnvMapActionBenchmark {
+	@Param({"10", "1000", "10000"})
+	public int variableCount;
+
+	private EnvMapAction action;
+
+	@Setup
+	public void setUp() {
+		Map<String, String> inject = new HashMap<String, String>(variableCount);
+		for(int i = 0; i < variableCount; i++) {
+			inject.put("VARIABLE_" + i, "value " + i);
+		}
+		action = new EnvMapAction(inject);
+	}
+
+	@Benchmark
+	public EnvVars buildEnvVars() {
+		EnvVars env = new EnvVars();
+		action.buildEnvVars(null, env);
+		return env;
+	}
+}
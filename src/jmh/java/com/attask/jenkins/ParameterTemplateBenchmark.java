@@ -0,0 +1,72 @@
+package com.attask.jenkins;
+
+import hudson.model.*;
+import hudson.util.NullStream;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Parsing a step's parameters block and building the parameters for a triggered project,
+ * which happens for every downstream build that is triggered.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParameterTemplateBenchmark {
+	@Param({"10", "100", "1000"})
+	public int parameterCount;
+
+	private String parameters;
+	private ParameterTemplate template;
+	private AbstractProject project;
+	private BuildListener listener;
+
+	@Setup
+	public void setUp() {
+		StringBuilder text = new StringBuilder();
+		List<ParameterDefinition> definitions = new ArrayList<ParameterDefinition>(parameterCount * 2);
+		for(int i = 0; i < parameterCount; i++) {
+			text.append("# parameter ").append(i).append('\n');
+			text.append("PARAMETER_").append(i).append(" = value ").append(i).append(" # trailing comment\n");
+			definitions.add(new StringParameterDefinition("PARAMETER_" + i, "default", "Set by the template"));
+			definitions.add(new StringParameterDefinition("DEFAULTED_" + i, "default", "Left to its default"));
+		}
+		parameters = text.toString();
+		template = new ParameterTemplate(parameters);
+
+		project = mock(AbstractProject.class);
+		when(project.getProperty(ParametersDefinitionProperty.class)).thenReturn(new ParametersDefinitionProperty(definitions));
+		listener = new StreamBuildListener(new NullStream(), Charset.defaultCharset());
+	}
+
+	@Benchmark
+	public Map<String, String> parse() {
+		return ParameterTemplate.parse(parameters);
+	}
+
+	@Benchmark
+	public Action createParametersAction() {
+		return template.createParametersAction(project, listener, false);
+	}
+
+	@Benchmark
+	public Action createParametersActionEchoed() {
+		return template.createParametersAction(project, listener, true);
+	}
+
+	@Benchmark
+	public Action getParameterActions() {
+		return TriggerJobBuildStep.getParameterActions(project, parameters, listener, false);
+	}
+}
@@ -0,0 +1,24 @@
+package com.attask.jenkins;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checking a step's "Only run if this value is true" condition.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShouldRunBenchmark {
+	@Param({"", "true", "!true", "yes", "false", "no"})
+	public String condition;
+
+	@Benchmark
+	public boolean shouldRun() {
+		return TriggerJobBuildStep.shouldRun(condition);
+	}
+}
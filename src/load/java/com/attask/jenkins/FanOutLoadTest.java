@@ -0,0 +1,161 @@
+package com.attask.jenkins;
+
+import hudson.Launcher;
+import hudson.model.*;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.TestBuilder;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures how the trigger and wait steps scale with the number of downstream builds, using trivial downstream jobs on local executors.
+ * For each fan-out it reports wall-clock time, how long the upstream held its executor, peak busy executors,
+ * thread counts, heap growth and downstream queue latency. Results are appended to target/load-results.jsonl.
+ *
+ * Run with: mvn -P load test
+ * Override the fan-outs with -Dload.fanOuts=10,100,1000 and the executors with -Dload.executors=50
+ */
+public class FanOutLoadTest {
+	private static final String FAN_OUTS = System.getProperty("load.fanOuts", "10,100,1000");
+	private static final int EXECUTORS = Integer.getInteger("load.executors", 50);
+	private static final int RETRIED_DOWNSTREAMS = Integer.getInteger("load.retriedDownstreams", 20);
+
+	@Rule
+	public JenkinsRule j = new JenkinsRule();
+
+	@Before
+	public void setUp() throws IOException {
+		j.jenkins.setNumExecutors(EXECUTORS);
+	}
+
+	@Test
+	public void triggerAndWait() throws Exception {
+		List<AbstractProject> downstreams = new ArrayList<AbstractProject>();
+		for (String fanOutText : FAN_OUTS.split(",")) {
+			int fanOut = Integer.parseInt(fanOutText.trim());
+			while(downstreams.size() < fanOut) {
+				downstreams.add(j.createFreeStyleProject("downstream" + downstreams.size()));
+			}
+
+			StringBuilder jobNames = new StringBuilder();
+			for(int i = 0; i < fanOut; i++) {
+				jobNames.append(downstreams.get(i).getFullName()).append('\n');
+			}
+			FreeStyleProject upstream = j.createFreeStyleProject("triggerAndWait" + fanOut);
+			upstream.getBuildersList().add(new TriggerAndWaitBuildStep(jobNames.toString(), "", false, null, 0, false));
+
+			run("triggerAndWait", fanOut, upstream);
+		}
+	}
+
+	/**
+	 * Every downstream fails the first time and is retried by {@link RetryBuildWrapper}.
+	 * The upstream has to find and wait for each of the retries.
+	 */
+	@Test
+	public void waitForRetriedBuilds() throws Exception {
+		FreeStyleProject upstream = j.createFreeStyleProject("waitForRetries");
+		for(int i = 0; i < RETRIED_DOWNSTREAMS; i++) {
+			FreeStyleProject downstream = j.createFreeStyleProject("retried" + i);
+			downstream.getBuildersList().add(new FailFirstAttemptBuilder());
+			downstream.getBuildWrappersList().add(new RetryBuildWrapper(1, Result.FAILURE.toString(), 0, false));
+
+			String variable = "RETRIED_" + i;
+			upstream.getBuildersList().add(new TriggerJobBuildStep(downstream.getFullName(), variable, "", 0, "", false));
+			upstream.getBuildersList().add(new WaitForBuildStep(downstream.getFullName(), "${" + variable + "}", 1000, 5000, "", true, true, 0, "", "", 0, "", false, false, false, false));
+		}
+
+		run("waitForRetriedBuilds", RETRIED_DOWNSTREAMS, upstream);
+	}
+
+	private void run(String scenario, int fanOut, FreeStyleProject upstream) throws Exception {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		long heapBefore = usedHeap();
+		int threadsBefore = threads.getThreadCount();
+		threads.resetPeakThreadCount();
+
+		BusyExecutorSampler sampler = new BusyExecutorSampler();
+		sampler.start();
+		long start = System.currentTimeMillis();
+		FreeStyleBuild build = j.assertBuildStatusSuccess(upstream.scheduleBuild2(0));
+		long wallClock = System.currentTimeMillis() - start;
+		sampler.interrupt();
+		sampler.join();
+
+		Histogram queueMillis = new Histogram();
+		DownstreamTimingsAction timings = build.getAction(DownstreamTimingsAction.class);
+		if(timings != null) {
+			for (DownstreamTiming timing : timings.getTimings()) {
+				queueMillis.record(timing.getQueueMillis());
+			}
+		}
+
+		String result = "{\"scenario\":\"" + scenario + "\"" +
+				",\"fanOut\":" + fanOut +
+				",\"executors\":" + EXECUTORS +
+				",\"wallClockMillis\":" + wallClock +
+				",\"upstreamExecutorMillis\":" + build.getDuration() +
+				",\"peakBusyExecutors\":" + sampler.peakBusy +
+				",\"threadsBefore\":" + threadsBefore +
+				",\"peakThreads\":" + threads.getPeakThreadCount() +
+				",\"threadsAfter\":" + threads.getThreadCount() +
+				",\"heapGrowthBytes\":" + (usedHeap() - heapBefore) +
+				",\"queueMillisP50\":" + queueMillis.getP50() +
+				",\"queueMillisP90\":" + queueMillis.getP90() +
+				",\"queueMillisMax\":" + queueMillis.getMax() +
+				"}";
+		System.out.println(result);
+		FileWriter writer = new FileWriter(new File("target", "load-results.jsonl"), true);
+		try {
+			writer.write(result + "\n");
+		} finally {
+			writer.close();
+		}
+	}
+
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		System.gc();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	private static class BusyExecutorSampler extends Thread {
+		private volatile int peakBusy;
+
+		public BusyExecutorSampler() {
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			try {
+				while(!isInterrupted()) {
+					int busy = 0;
+					for (Computer computer : Hudson.getInstance().getComputers()) {
+						busy += computer.countBusy();
+					}
+					peakBusy = Math.max(peakBusy, busy);
+					Thread.sleep(100);
+				}
+			} catch (InterruptedException ignore) {
+				//Done sampling.
+			}
+		}
+	}
+
+	public static class FailFirstAttemptBuilder extends TestBuilder {
+		@Override
+		public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) throws InterruptedException, IOException {
+			return build.getCause(RetriedCause.class) != null;
+		}
+	}
+}
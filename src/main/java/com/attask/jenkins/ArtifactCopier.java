@@ -0,0 +1,251 @@
+package com.attask.jenkins;
+
+import hudson.FilePath;
+import hudson.Util;
+import hudson.model.BuildListener;
+import hudson.model.Computer;
+import hudson.model.Run;
+import hudson.remoting.VirtualChannel;
+import hudson.tasks.Fingerprinter;
+import hudson.util.DirScanner;
+import hudson.util.FileVisitor;
+import org.apache.tools.ant.DirectoryScanner;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Copies a downstream build's artifacts into a directory in the upstream's workspace.
+ * Artifacts are flattened into the target directory.
+ */
+public class ArtifactCopier {
+	private static final int PIPE_BUFFER_SIZE = 64 * 1024;
+
+	private final String filesToCopy;
+	private final boolean bulk;
+	private final boolean incremental;
+
+	/**
+	 * @param bulk If true, the artifacts are streamed to the target as a single compressed archive.
+	 * @param incremental If true, artifacts already in the target directory with the same size and MD5 are skipped.
+	 */
+	public ArtifactCopier(String filesToCopy, boolean bulk, boolean incremental) {
+		this.filesToCopy = filesToCopy;
+		this.bulk = bulk;
+		this.incremental = incremental;
+	}
+
+	/**
+	 * @return The number of bytes copied.
+	 */
+	public long copy(Run waitedForBuild, FilePath targetDirectory, BuildListener listener) throws IOException, InterruptedException {
+		if (filesToCopy == null || filesToCopy.isEmpty() || waitedForBuild == null) {
+			return 0;
+		}
+		File artifactsDir = waitedForBuild.getArtifactsDir();
+		String[] includedFiles = findArtifacts(artifactsDir);
+		if(includedFiles.length == 0) {
+			return 0;
+		}
+
+		PrintStream logger = listener.getLogger();
+		if (!targetDirectory.exists()) {
+			logger.println("Directory: " + targetDirectory.getName() + " does not exist. Creating directory: " + targetDirectory.getName());
+			targetDirectory.mkdirs();
+			logger.println("Created directory: " + targetDirectory.getName());
+		}
+
+		if(incremental) {
+			includedFiles = findChangedArtifacts(waitedForBuild, artifactsDir, includedFiles, targetDirectory, listener);
+			if(includedFiles.length == 0) {
+				return 0;
+			}
+		}
+
+		if(bulk) {
+			return copyInBulk(artifactsDir, includedFiles, targetDirectory, listener);
+		} else {
+			return copyEach(artifactsDir, includedFiles, targetDirectory, listener);
+		}
+	}
+
+	private String[] findArtifacts(File artifactsDir) {
+		if(!artifactsDir.isDirectory()) {
+			return new String[0];
+		}
+		DirectoryScanner scanner = new DirectoryScanner();
+		scanner.setIncludes(new String[]{filesToCopy});
+		scanner.setBasedir(artifactsDir);
+		scanner.scan();
+		return scanner.getIncludedFiles();
+	}
+
+	/**
+	 * @return The artifacts that are missing from the target directory or differ from what's there.
+	 */
+	private String[] findChangedArtifacts(Run waitedForBuild, File artifactsDir, String[] includedFiles, FilePath targetDirectory, BuildListener listener) throws IOException, InterruptedException {
+		Map<String, Long> sizes = new HashMap<String, Long>(includedFiles.length);
+		for (String includedFile : includedFiles) {
+			File sourceFile = new File(artifactsDir, includedFile);
+			sizes.put(sourceFile.getName(), sourceFile.length());
+		}
+		Map<String, String> targetDigests = targetDirectory.act(new DigestFiles(sizes));
+
+		Map<String, String> fingerprints = null;
+		Fingerprinter.FingerprintAction fingerprintAction = waitedForBuild.getAction(Fingerprinter.FingerprintAction.class);
+		if(fingerprintAction != null) {
+			fingerprints = fingerprintAction.getRecords();
+		}
+
+		List<String> changed = new ArrayList<String>(includedFiles.length);
+		long skippedBytes = 0;
+		long changedBytes = 0;
+		for (String includedFile : includedFiles) {
+			File sourceFile = new File(artifactsDir, includedFile);
+			String targetDigest = targetDigests.get(sourceFile.getName());
+			if(targetDigest != null && targetDigest.equals(getDigest(sourceFile, includedFile, fingerprints))) {
+				skippedBytes += sourceFile.length();
+			} else {
+				changed.add(includedFile);
+				changedBytes += sourceFile.length();
+			}
+		}
+
+		listener.getLogger().println("Skipping " + (includedFiles.length - changed.size()) + " unchanged artifacts (" + skippedBytes + " bytes). " +
+				"Copying " + changed.size() + " changed artifacts (" + changedBytes + " bytes).");
+		return changed.toArray(new String[changed.size()]);
+	}
+
+	private static String getDigest(File sourceFile, String relativePath, Map<String, String> fingerprints) throws IOException {
+		if(fingerprints != null) {
+			String fingerprint = fingerprints.get(relativePath.replace('\\', '/'));
+			if(fingerprint != null) {
+				return fingerprint;
+			}
+		}
+		return digest(sourceFile);
+	}
+
+	private static String digest(File file) throws IOException {
+		InputStream stream = new FileInputStream(file);
+		try {
+			return Util.getDigestOf(stream);
+		} finally {
+			stream.close();
+		}
+	}
+
+	private long copyEach(File artifactsDir, String[] includedFiles, FilePath targetDirectory, BuildListener listener) throws IOException, InterruptedException {
+		String targetPath = targetDirectory.absolutize().toString();
+		long bytes = 0;
+		for (String includedFile : includedFiles) {
+			try {
+				File sourceFile = new File(artifactsDir, includedFile);
+				FilePath copiedArtifact = targetDirectory.child(sourceFile.getName());
+				try {
+					copiedArtifact.copyFrom(sourceFile.toURI().toURL());
+					bytes += sourceFile.length();
+					listener.getLogger().println("Copied artifact: '" + includedFile + "' to '" + targetPath + "'");
+				} catch (FileNotFoundException e) {
+					listener.error(e.getMessage());
+				}
+			} catch (IOException e) {
+				e.printStackTrace(listener.getLogger());
+			}
+		}
+		return bytes;
+	}
+
+	private long copyInBulk(File artifactsDir, String[] includedFiles, FilePath targetDirectory, BuildListener listener) throws IOException, InterruptedException {
+		PrintStream logger = listener.getLogger();
+		long bytes = 0;
+		for (String includedFile : includedFiles) {
+			bytes += new File(artifactsDir, includedFile).length();
+		}
+		logger.println("Copying " + includedFiles.length + " artifacts (" + bytes + " bytes) to '" + targetDirectory.getRemote() + "' as a single archive.");
+
+		long start = System.currentTimeMillis();
+		int copied = tarTo(artifactsDir, new FlatteningScanner(includedFiles), targetDirectory);
+		long elapsed = System.currentTimeMillis() - start;
+
+		logger.println("Copied " + copied + " artifacts (" + bytes + " bytes) in " + Util.getTimeSpanString(elapsed) + ".");
+		return bytes;
+	}
+
+	private static int tarTo(File artifactsDir, final DirScanner scanner, FilePath targetDirectory) throws IOException, InterruptedException {
+		final FilePath source = new FilePath(artifactsDir);
+		final PipedOutputStream out = new PipedOutputStream();
+		PipedInputStream in = new PipedInputStream(out, PIPE_BUFFER_SIZE);
+		Future<Integer> archived = Computer.threadPoolForRemoting.submit(new Callable<Integer>() {
+			public Integer call() throws IOException, InterruptedException {
+				OutputStream gzip = new GZIPOutputStream(out);
+				try {
+					return source.tar(gzip, scanner);
+				} finally {
+					gzip.close();
+				}
+			}
+		});
+		try {
+			targetDirectory.untarFrom(in, FilePath.TarCompression.GZIP);
+		} finally {
+			//Unblocks the writer if unpacking failed part way.
+			in.close();
+		}
+		try {
+			return archived.get();
+		} catch (ExecutionException e) {
+			throw new IOException("Unable to archive the artifacts in " + artifactsDir, e.getCause());
+		}
+	}
+
+	/**
+	 * Names each file by its file name alone, so the archive is unpacked flat.
+	 */
+	private static class FlatteningScanner extends DirScanner {
+		private static final long serialVersionUID = 1L;
+		private final String[] includedFiles;
+
+		public FlatteningScanner(String[] includedFiles) {
+			this.includedFiles = includedFiles;
+		}
+
+		@Override
+		public void scan(File dir, FileVisitor visitor) throws IOException {
+			for (String includedFile : includedFiles) {
+				File file = new File(dir, includedFile);
+				visitor.visit(file, file.getName());
+			}
+		}
+	}
+
+	/**
+	 * MD5s of the files in the target directory that have the expected size.
+	 */
+	private static class DigestFiles implements FilePath.FileCallable<Map<String, String>> {
+		private static final long serialVersionUID = 1L;
+		private final Map<String, Long> sizes;
+
+		public DigestFiles(Map<String, Long> sizes) {
+			this.sizes = sizes;
+		}
+
+		public Map<String, String> invoke(File dir, VirtualChannel channel) throws IOException, InterruptedException {
+			Map<String, String> result = new HashMap<String, String>(sizes.size());
+			for (Map.Entry<String, Long> entry : sizes.entrySet()) {
+				File file = new File(dir, entry.getKey());
+				if(file.isFile() && file.length() == entry.getValue()) {
+					result.put(entry.getKey(), digest(file));
+				}
+			}
+			return result;
+		}
+	}
+}
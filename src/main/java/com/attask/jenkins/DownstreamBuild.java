@@ -0,0 +1,146 @@
+package com.attask.jenkins;
+
+import hudson.model.BallColor;
+import hudson.model.Result;
+import hudson.model.Run;
+import hudson.tasks.test.AbstractTestResultAction;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.lang.ref.Reference;
+import java.lang.ref.SoftReference;
+
+/**
+ * A persisted summary of a downstream build, including its test counts, so the upstream's build page
+ * can be rendered without resolving (and possibly loading from disk) every downstream {@link Run}.
+ *
+ * The summary is filled in when the downstream is added and again when it completes.
+ */
+@ExportedBean(defaultVisibility = 2)
+public class DownstreamBuild {
+	private final String externalizableId;
+	private int number;
+	private String fullDisplayName;
+	private String url;
+	private String result;
+	private long duration;
+	private Integer failCount;
+	private Integer skipCount;
+	private Integer totalCount;
+	private transient Reference<Run> run;
+
+	public DownstreamBuild(Run run) {
+		this.externalizableId = run.getExternalizableId();
+		update(run);
+	}
+
+	public DownstreamBuild(String externalizableId) {
+		this.externalizableId = externalizableId;
+	}
+
+	public synchronized void update(Run run) {
+		this.run = new SoftReference<Run>(run);
+		this.number = run.getNumber();
+		this.fullDisplayName = run.getFullDisplayName();
+		this.url = run.getUrl();
+		if(run.isBuilding()) {
+			this.result = null;
+		} else {
+			Result runResult = run.getResult();
+			this.result = runResult == null ? null : runResult.toString();
+			this.duration = run.getDuration();
+
+			//Capture the test counts once so the test report doesn't have to be loaded on every render.
+			AbstractTestResultAction testAction = run.getAction(AbstractTestResultAction.class);
+			if(testAction != null) {
+				this.failCount = testAction.getFailCount();
+				this.skipCount = testAction.getSkipCount();
+				this.totalCount = testAction.getTotalCount();
+			}
+		}
+	}
+
+	/**
+	 * Re-reads the run unless the summary is already complete.
+	 * @return True if the summary was filled in for the first time or has now completed.
+	 */
+	public synchronized boolean refresh() {
+		if(isComplete()) {
+			return false;
+		}
+		Run resolved = getRun();
+		if(resolved == null) {
+			return false;
+		}
+		boolean filledIn = fullDisplayName != null;
+		update(resolved);
+		return !filledIn || isComplete();
+	}
+
+	public synchronized Run getRun() {
+		Run resolved = run == null ? null : run.get();
+		if(resolved == null) {
+			resolved = Run.fromExternalizableId(externalizableId);
+			if(resolved != null) {
+				run = new SoftReference<Run>(resolved);
+			}
+		}
+		return resolved;
+	}
+
+	public boolean isComplete() {
+		return result != null;
+	}
+
+	public String getOrb() {
+		if(!isComplete()) {
+			return BallColor.NOTBUILT_ANIME.getImageOf("16x16");
+		}
+		return Result.fromString(result).color.getImageOf("16x16");
+	}
+
+	@Exported
+	public String getExternalizableId() {
+		return externalizableId;
+	}
+
+	@Exported
+	public int getNumber() {
+		return number;
+	}
+
+	@Exported
+	public String getFullDisplayName() {
+		return fullDisplayName;
+	}
+
+	@Exported
+	public String getUrl() {
+		return url;
+	}
+
+	@Exported
+	public String getResult() {
+		return result;
+	}
+
+	@Exported
+	public long getDuration() {
+		return duration;
+	}
+
+	@Exported
+	public Integer getFailCount() {
+		return failCount;
+	}
+
+	@Exported
+	public Integer getSkipCount() {
+		return skipCount;
+	}
+
+	@Exported
+	public Integer getTotalCount() {
+		return totalCount;
+	}
+}
@@ -1,16 +1,17 @@
 package com.attask.jenkins;
 
-import hudson.model.Action;
-import hudson.model.BallColor;
-import hudson.model.Result;
-import hudson.model.Run;
+import hudson.Extension;
+import hudson.model.*;
+import hudson.model.listeners.RunListener;
 import hudson.tasks.test.AbstractTestResultAction;
+import jenkins.model.Jenkins;
 import org.kohsuke.stapler.export.Exported;
 import org.kohsuke.stapler.export.ExportedBean;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.io.IOException;
+import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * User: Joel Johnson
@@ -19,27 +20,137 @@ import java.util.List;
  */
 @ExportedBean
 public class DownstreamBuildsAction implements Action {
+	private static final Logger LOGGER = Logger.getLogger(DownstreamBuildsAction.class.getName());
+
 	private final List<String> downstreamBuildIds;
+	private Map<String, DownstreamBuild> downstreamSummaries;
 
 	public DownstreamBuildsAction() {
 		this.downstreamBuildIds = new ArrayList<String>();
+		this.downstreamSummaries = new LinkedHashMap<String, DownstreamBuild>();
+	}
+
+	protected Object readResolve() {
+		//Builds recorded before summaries existed only have their ids.
+		if(downstreamSummaries == null) {
+			downstreamSummaries = new LinkedHashMap<String, DownstreamBuild>();
+			for (String downstreamBuildId : downstreamBuildIds) {
+				downstreamSummaries.put(downstreamBuildId, new DownstreamBuild(downstreamBuildId));
+			}
+		}
+		return this;
+	}
+
+	protected Object writeReplace() {
+		//The upstream may be adding downstream builds while it's saved, so a copy is written.
+		DownstreamBuildsAction snapshot = new DownstreamBuildsAction();
+		synchronized (downstreamBuildIds) {
+			snapshot.downstreamBuildIds.addAll(downstreamBuildIds);
+			snapshot.downstreamSummaries.putAll(downstreamSummaries);
+		}
+		return snapshot;
+	}
+
+	public static void addDownstreamBuild(Run upstream, Run downstream) {
+		DownstreamBuildsAction action;
+		synchronized (upstream) {
+			action = upstream.getAction(DownstreamBuildsAction.class);
+			if(action == null) {
+				action = new DownstreamBuildsAction();
+				upstream.addAction(action);
+			}
+		}
+		action.addDownstreamBuild(downstream);
 	}
 
 	public void addDownstreamBuild(Run run) {
 		synchronized (downstreamBuildIds) {
+			if(downstreamSummaries.containsKey(run.getExternalizableId())) {
+				return;
+			}
 			downstreamBuildIds.add(run.getExternalizableId());
+			downstreamSummaries.put(run.getExternalizableId(), new DownstreamBuild(run));
 		}
 	}
 
+	public boolean updateDownstreamBuild(Run run) {
+		DownstreamBuild summary;
+		synchronized (downstreamBuildIds) {
+			summary = downstreamSummaries.get(run.getExternalizableId());
+		}
+		if(summary == null) {
+			return false;
+		}
+		summary.update(run);
+		return true;
+	}
+
 	public List<String> getDownstreamBuildIds() {
 		return Collections.unmodifiableList(downstreamBuildIds);
 	}
 
 	@Exported
+	public List<DownstreamBuild> getDownstreamSummaries() {
+		List<DownstreamBuild> result;
+		synchronized (downstreamBuildIds) {
+			result = new ArrayList<DownstreamBuild>(downstreamSummaries.values());
+		}
+		List<Run> refreshed = new ArrayList<Run>();
+		for (DownstreamBuild summary : result) {
+			if(summary.refresh()) {
+				Run<?, ?> run = summary.getRun();
+				if(run != null) {
+					refreshed.add(run);
+				}
+			}
+		}
+		if(!refreshed.isEmpty()) {
+			saveUpstream(refreshed);
+		}
+		return result;
+	}
+
+	private void saveUpstream(List<Run> downstreamBuilds) {
+		for (Run downstream : downstreamBuilds) {
+			for (Object cause : downstream.getCauses()) {
+				if(!(cause instanceof Cause.UpstreamCause)) {
+					continue;
+				}
+				Run upstreamRun = findUpstreamRun((Cause.UpstreamCause) cause);
+				if(upstreamRun != null && upstreamRun.getAction(DownstreamBuildsAction.class) == this) {
+					if(!upstreamRun.isBuilding()) {
+						save(upstreamRun);
+					}
+					return;
+				}
+			}
+		}
+	}
+
+	private static Run findUpstreamRun(Cause.UpstreamCause cause) {
+		Job upstreamJob = Jenkins.getInstance().getItemByFullName(cause.getUpstreamProject(), Job.class);
+		if(upstreamJob == null) {
+			return null;
+		}
+		return upstreamJob.getBuildByNumber(cause.getUpstreamBuild());
+	}
+
+	private static void save(Run upstreamRun) {
+		try {
+			upstreamRun.save();
+		} catch (IOException e) {
+			LOGGER.log(Level.WARNING, "Unable to save the downstream summaries of " + upstreamRun, e);
+		}
+	}
+
 	public List<Run> getDownstreamBuilds() {
-		List<Run> result = new ArrayList<Run>(downstreamBuildIds.size());
-		for (String downstreamBuildId : downstreamBuildIds) {
-			Run<?, ?> run = Run.fromExternalizableId(downstreamBuildId);
+		List<DownstreamBuild> summaries;
+		synchronized (downstreamBuildIds) {
+			summaries = new ArrayList<DownstreamBuild>(downstreamSummaries.values());
+		}
+		List<Run> result = new ArrayList<Run>(summaries.size());
+		for (DownstreamBuild summary : summaries) {
+			Run<?, ?> run = summary.getRun();
 			if(run != null) {
 				result.add(run);
 			}
@@ -58,6 +169,16 @@ public class DownstreamBuildsAction implements Action {
 	}
 
 	public Integer findFailureCount(Run run) {
+		if(run == null) {
+			return null;
+		}
+		DownstreamBuild summary;
+		synchronized (downstreamBuildIds) {
+			summary = downstreamSummaries.get(run.getExternalizableId());
+		}
+		if(summary != null && summary.isComplete()) {
+			return summary.getFailCount();
+		}
 		Integer result = null;
 		AbstractTestResultAction testAction = run.getAction(AbstractTestResultAction.class);
 		if(testAction != null) {
@@ -77,4 +198,31 @@ public class DownstreamBuildsAction implements Action {
 	public String getUrlName() {
 		return "downstreamBuilds";
 	}
+
+	@Extension
+	public static class RunListenerImpl extends RunListener<Run> {
+		public RunListenerImpl() {
+			super(Run.class);
+		}
+
+		@Override
+		public void onCompleted(Run run, TaskListener listener) {
+			for (Object cause : run.getCauses()) {
+				if(cause instanceof Cause.UpstreamCause && !(cause instanceof RetriedCause)) {
+					updateUpstream((Cause.UpstreamCause) cause, run);
+				}
+			}
+		}
+
+		private void updateUpstream(Cause.UpstreamCause cause, Run run) {
+			Run upstreamRun = findUpstreamRun(cause);
+			if(upstreamRun == null) {
+				return;
+			}
+			DownstreamBuildsAction action = upstreamRun.getAction(DownstreamBuildsAction.class);
+			if(action != null && action.updateDownstreamBuild(run) && !upstreamRun.isBuilding()) {
+				save(upstreamRun);
+			}
+		}
+	}
 }
@@ -0,0 +1,113 @@
+package com.attask.jenkins;
+
+import hudson.model.Run;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * Where the time went for one downstream build: scheduled, left the queue, seen started by the upstream, completed.
+ * Also records how long it took to find a retried build and to copy its artifacts.
+ * Times are in milliseconds since the epoch, or 0 if that point wasn't observed.
+ */
+@ExportedBean(defaultVisibility = 2)
+public class DownstreamTiming {
+	private final String jobName;
+	private int buildNumber;
+	private long scheduledTime;
+	private long leftQueueTime;
+	private long startedTime;
+	private long completedTime;
+	private long retryLookupMillis;
+	private long artifactBytes;
+	private long artifactCopyMillis;
+
+	public DownstreamTiming(String jobName) {
+		this.jobName = jobName;
+	}
+
+	public void scheduled() {
+		scheduledTime = System.currentTimeMillis();
+	}
+
+	public void started(Run run) {
+		startedTime = System.currentTimeMillis();
+		buildNumber = run.getNumber();
+		leftQueueTime = run.getTimeInMillis();
+	}
+
+	public void completed(Run run) {
+		buildNumber = run.getNumber();
+		leftQueueTime = run.getTimeInMillis();
+		completedTime = run.getTimeInMillis() + run.getDuration();
+	}
+
+	public void retryLookup(long millis) {
+		retryLookupMillis += millis;
+	}
+
+	public void artifactsCopied(long bytes, long millis) {
+		artifactBytes += bytes;
+		artifactCopyMillis += millis;
+	}
+
+	@Exported
+	public String getJobName() {
+		return jobName;
+	}
+
+	@Exported
+	public int getBuildNumber() {
+		return buildNumber;
+	}
+
+	@Exported
+	public long getScheduledTime() {
+		return scheduledTime;
+	}
+
+	@Exported
+	public long getLeftQueueTime() {
+		return leftQueueTime;
+	}
+
+	@Exported
+	public long getStartedTime() {
+		return startedTime;
+	}
+
+	@Exported
+	public long getCompletedTime() {
+		return completedTime;
+	}
+
+	/**
+	 * @return How long the build sat in the queue, or -1 if it wasn't scheduled by us.
+	 */
+	@Exported
+	public long getQueueMillis() {
+		return scheduledTime > 0 && leftQueueTime > 0 ? leftQueueTime - scheduledTime : -1;
+	}
+
+	/**
+	 * @return How long the build ran, or -1 if it hasn't completed.
+	 */
+	@Exported
+	public long getBuildMillis() {
+		return leftQueueTime > 0 && completedTime > 0 ? completedTime - leftQueueTime : -1;
+	}
+
+	@Exported
+	public long getRetryLookupMillis() {
+		return retryLookupMillis;
+	}
+
+	@Exported
+	public long getArtifactBytes() {
+		return artifactBytes;
+	}
+
+	@Exported
+	public long getArtifactCopyMillis() {
+		return artifactCopyMillis;
+	}
+}
@@ -0,0 +1,54 @@
+package com.attask.jenkins;
+
+import hudson.model.Action;
+import hudson.model.Run;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The timings of the downstream builds triggered or waited on by a build.
+ */
+@ExportedBean
+public class DownstreamTimingsAction implements Action {
+	private final List<DownstreamTiming> timings;
+
+	public DownstreamTimingsAction() {
+		this.timings = new ArrayList<DownstreamTiming>();
+	}
+
+	public static void addTiming(Run build, DownstreamTiming timing) {
+		DownstreamTimingsAction action;
+		synchronized (build) {
+			action = (DownstreamTimingsAction) build.getAction(DownstreamTimingsAction.class);
+			if(action == null) {
+				action = new DownstreamTimingsAction();
+				build.addAction(action);
+			}
+		}
+		synchronized (action.timings) {
+			action.timings.add(timing);
+		}
+	}
+
+	@Exported
+	public List<DownstreamTiming> getTimings() {
+		synchronized (timings) {
+			return new ArrayList<DownstreamTiming>(timings);
+		}
+	}
+
+	public String getIconFileName() {
+		return null;
+	}
+
+	public String getDisplayName() {
+		return null;
+	}
+
+	public String getUrlName() {
+		return "downstreamTimings";
+	}
+}
@@ -0,0 +1,97 @@
+package com.attask.jenkins;
+
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * A fixed-size histogram of durations (or sizes) with exponentially sized buckets, four per power of two.
+ * Percentiles are accurate to within about 20%, which is plenty to spot where the time is going,
+ * and recording a value never allocates.
+ */
+@ExportedBean(defaultVisibility = 2)
+public class Histogram {
+	private static final int BUCKETS_PER_POWER_OF_TWO = 4;
+	private static final int MAX_POWER_OF_TWO = 48;
+
+	private final long[] counts = new long[MAX_POWER_OF_TWO * BUCKETS_PER_POWER_OF_TWO + 1];
+	private long count;
+	private long sum;
+	private long max;
+
+	public synchronized void record(long value) {
+		if(value < 0) {
+			return;
+		}
+		counts[bucketOf(value)]++;
+		count++;
+		sum += value;
+		max = Math.max(max, value);
+	}
+
+	@Exported
+	public synchronized long getCount() {
+		return count;
+	}
+
+	@Exported
+	public synchronized long getMean() {
+		return count == 0 ? 0 : sum / count;
+	}
+
+	@Exported
+	public synchronized long getMax() {
+		return max;
+	}
+
+	@Exported
+	public long getP50() {
+		return getPercentile(0.50);
+	}
+
+	@Exported
+	public long getP90() {
+		return getPercentile(0.90);
+	}
+
+	@Exported
+	public long getP99() {
+		return getPercentile(0.99);
+	}
+
+	/**
+	 * @return The upper bound of the bucket holding the given percentile (between 0 and 1) of the recorded values.
+	 */
+	public synchronized long getPercentile(double percentile) {
+		if(count == 0) {
+			return 0;
+		}
+		long target = (long) Math.ceil(percentile * count);
+		long seen = 0;
+		for(int bucket = 0; bucket < counts.length; bucket++) {
+			seen += counts[bucket];
+			if(seen >= target) {
+				return Math.min(upperBoundOf(bucket), max);
+			}
+		}
+		return max;
+	}
+
+	private static int bucketOf(long value) {
+		if(value <= 1) {
+			return 0;
+		}
+		int bucket = (int) Math.ceil(Math.log(value) / Math.log(2) * BUCKETS_PER_POWER_OF_TWO);
+		bucket = Math.min(bucket, MAX_POWER_OF_TWO * BUCKETS_PER_POWER_OF_TWO);
+		//The logarithm can be off by a rounding error, which matters for values right on a bucket's bound.
+		if(bucket > 0 && upperBoundOf(bucket - 1) >= value) {
+			bucket--;
+		} else if(bucket < MAX_POWER_OF_TWO * BUCKETS_PER_POWER_OF_TWO && upperBoundOf(bucket) < value) {
+			bucket++;
+		}
+		return bucket;
+	}
+
+	private static long upperBoundOf(int bucket) {
+		return (long) Math.ceil(Math.pow(2, bucket / (double) BUCKETS_PER_POWER_OF_TWO));
+	}
+}
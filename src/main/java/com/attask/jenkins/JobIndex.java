@@ -0,0 +1,264 @@
+package com.attask.jenkins;
+
+import hudson.Extension;
+import hudson.model.*;
+import hudson.model.listeners.ItemListener;
+import jenkins.model.Jenkins;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Resolves job selectors to projects. A selector is one of:
+ * <ul>
+ *     <li>A job's full name, e.g. "shards/shard-1"</li>
+ *     <li>"glob:shards/shard-*" where * matches within one level and ** matches across levels</li>
+ *     <li>"regex:shards/shard-[0-9]+" matched against the whole full name</li>
+ *     <li>"view:Shards" for the projects in a view</li>
+ *     <li>"folder:shards" for the projects directly inside a folder</li>
+ * </ul>
+ *
+ * Patterns are matched against a sorted index of project full names that {@link ItemListenerImpl} keeps up to date,
+ * rather than walking the item tree on every trigger. Each pattern's matches are cached until the index changes,
+ * and the cache is cleared whenever it fills up.
+ */
+public class JobIndex {
+	public static final String GLOB_PREFIX = "glob:";
+	public static final String REGEX_PREFIX = "regex:";
+	public static final String VIEW_PREFIX = "view:";
+	public static final String FOLDER_PREFIX = "folder:";
+	private static final int MAX_CACHED_PATTERNS = 1000;
+
+	private static final ConcurrentSkipListSet<String> projectNames = new ConcurrentSkipListSet<String>();
+	private static final ConcurrentMap<String, Matches> matchesByPattern = new ConcurrentHashMap<String, Matches>();
+	private static final AtomicLong generation = new AtomicLong();
+	private static volatile boolean loaded;
+
+	/**
+	 * @return The projects the selector refers to, in name order for patterns. Empty if there are none.
+	 * @throws IllegalArgumentException If the selector is an invalid regular expression.
+	 */
+	public static List<AbstractProject> resolve(String selector) {
+		selector = selector.trim();
+		if(selector.isEmpty()) {
+			return Collections.emptyList();
+		}
+		if(selector.startsWith(VIEW_PREFIX)) {
+			return findViewProjects(selector.substring(VIEW_PREFIX.length()).trim());
+		}
+		if(!isPattern(selector)) {
+			AbstractProject project = findProject(selector);
+			return project == null ? Collections.<AbstractProject>emptyList() : Collections.singletonList(project);
+		}
+
+		List<AbstractProject> result = new ArrayList<AbstractProject>();
+		for (String name : findMatchingNames(selector)) {
+			AbstractProject project = findProject(name);
+			if(project != null) {
+				result.add(project);
+			}
+		}
+		return result;
+	}
+
+	public static boolean isPattern(String selector) {
+		return selector.startsWith(GLOB_PREFIX) || selector.startsWith(REGEX_PREFIX) || selector.startsWith(FOLDER_PREFIX) || selector.startsWith(VIEW_PREFIX);
+	}
+
+	public static AbstractProject findProject(String fullName) {
+		return Jenkins.getInstance().getItemByFullName(fullName, AbstractProject.class);
+	}
+
+	public static Job findJob(String fullName) {
+		return Jenkins.getInstance().getItemByFullName(fullName, Job.class);
+	}
+
+	private static List<AbstractProject> findViewProjects(String viewName) {
+		View view = Jenkins.getInstance().getView(viewName);
+		if(view == null) {
+			return Collections.emptyList();
+		}
+		List<AbstractProject> result = new ArrayList<AbstractProject>();
+		for (TopLevelItem item : view.getItems()) {
+			if(item instanceof AbstractProject) {
+				result.add((AbstractProject) item);
+			}
+		}
+		return result;
+	}
+
+	private static List<String> findMatchingNames(String selector) {
+		ensureLoaded();
+		long currentGeneration = generation.get();
+		Matches cached = matchesByPattern.get(selector);
+		if(cached != null && cached.generation == currentGeneration) {
+			return cached.names;
+		}
+
+		List<String> names;
+		if(selector.startsWith(FOLDER_PREFIX)) {
+			names = findFolderNames(selector.substring(FOLDER_PREFIX.length()).trim());
+		} else {
+			Pattern pattern = compile(selector);
+			names = new ArrayList<String>();
+			//Only scan the names that share the pattern's literal prefix.
+			String prefix = getLiteralPrefix(selector);
+			for (String name : projectNames.subSet(prefix, true, prefix + Character.MAX_VALUE, true)) {
+				if(pattern.matcher(name).matches()) {
+					names.add(name);
+				}
+			}
+		}
+		names = Collections.unmodifiableList(names);
+		//Selectors can contain build variables, so there's no telling how many different ones there will be.
+		if(matchesByPattern.size() >= MAX_CACHED_PATTERNS) {
+			matchesByPattern.clear();
+		}
+		matchesByPattern.put(selector, new Matches(currentGeneration, names));
+		return names;
+	}
+
+	private static List<String> findFolderNames(String folder) {
+		String prefix = folder.endsWith("/") ? folder : folder + "/";
+		List<String> names = new ArrayList<String>();
+		for (String name : projectNames.subSet(prefix, true, prefix + Character.MAX_VALUE, true)) {
+			if(name.indexOf('/', prefix.length()) < 0) {
+				names.add(name);
+			}
+		}
+		return names;
+	}
+
+	private static Pattern compile(String selector) {
+		try {
+			if(selector.startsWith(REGEX_PREFIX)) {
+				return Pattern.compile(selector.substring(REGEX_PREFIX.length()).trim());
+			}
+			return Pattern.compile(globToRegex(selector.substring(GLOB_PREFIX.length()).trim()));
+		} catch (PatternSyntaxException e) {
+			throw new IllegalArgumentException("Invalid job pattern '" + selector + "': " + e.getDescription(), e);
+		}
+	}
+
+	static String globToRegex(String glob) {
+		StringBuilder regex = new StringBuilder();
+		int length = glob.length();
+		for(int i = 0; i < length; i++) {
+			char c = glob.charAt(i);
+			if(c == '*') {
+				if(i + 1 < length && glob.charAt(i + 1) == '*') {
+					regex.append(".*");
+					i++;
+				} else {
+					regex.append("[^/]*");
+				}
+			} else if(c == '?') {
+				regex.append("[^/]");
+			} else {
+				regex.append(Pattern.quote(String.valueOf(c)));
+			}
+		}
+		return regex.toString();
+	}
+
+	private static String getLiteralPrefix(String selector) {
+		//Regular expressions are too hard to be sure about, so they get no prefix.
+		if(!selector.startsWith(GLOB_PREFIX)) {
+			return "";
+		}
+		String glob = selector.substring(GLOB_PREFIX.length()).trim();
+		int end = 0;
+		while(end < glob.length() && glob.charAt(end) != '*' && glob.charAt(end) != '?') {
+			end++;
+		}
+		return glob.substring(0, end);
+	}
+
+	private static synchronized void ensureLoaded() {
+		if(!loaded) {
+			rebuild();
+		}
+	}
+
+	private static synchronized void rebuild() {
+		projectNames.clear();
+		for (AbstractProject project : Jenkins.getInstance().getAllItems(AbstractProject.class)) {
+			projectNames.add(project.getFullName());
+		}
+		loaded = true;
+		generation.incrementAndGet();
+		matchesByPattern.clear();
+	}
+
+	private static synchronized void invalidate() {
+		loaded = false;
+		generation.incrementAndGet();
+		matchesByPattern.clear();
+	}
+
+	private static synchronized void added(Item item) {
+		if(item instanceof AbstractProject) {
+			projectNames.add(item.getFullName());
+			generation.incrementAndGet();
+		} else if(item instanceof ItemGroup) {
+			//A folder may come with projects already in it.
+			invalidate();
+		}
+	}
+
+	private static synchronized void removed(Item item, String fullName) {
+		if(item instanceof AbstractProject) {
+			projectNames.remove(fullName);
+			generation.incrementAndGet();
+		} else if(item instanceof ItemGroup) {
+			//Every project inside the folder moved or went away with it.
+			invalidate();
+		}
+	}
+
+	private static class Matches {
+		private final long generation;
+		private final List<String> names;
+
+		public Matches(long generation, List<String> names) {
+			this.generation = generation;
+			this.names = names;
+		}
+	}
+
+	@Extension
+	public static class ItemListenerImpl extends ItemListener {
+		@Override
+		public void onLoaded() {
+			invalidate();
+		}
+
+		@Override
+		public void onCreated(Item item) {
+			added(item);
+		}
+
+		@Override
+		public void onCopied(Item src, Item item) {
+			added(item);
+		}
+
+		@Override
+		public void onDeleted(Item item) {
+			removed(item, item.getFullName());
+		}
+
+		@Override
+		public void onRenamed(Item item, String oldName, String newName) {
+			String parentName = item.getParent().getFullName();
+			String oldFullName = parentName == null || parentName.isEmpty() ? oldName : parentName + "/" + oldName;
+			removed(item, oldFullName);
+			added(item);
+		}
+	}
+}
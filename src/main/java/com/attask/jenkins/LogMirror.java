@@ -0,0 +1,80 @@
+package com.attask.jenkins;
+
+import hudson.model.Run;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+
+/**
+ * Copies a downstream build's console into the upstream's log while the downstream runs.
+ * Each call to {@link #update()} only reads what has been written since the last call,
+ * and complete lines are written prefixed with the downstream's display name.
+ *
+ * Updates are rate-limited to one every {@link #INTERVAL_MILLIS}.
+ */
+public class LogMirror {
+	public static final long INTERVAL_MILLIS = 2000;
+
+	private final Run run;
+	private final PrintStream logger;
+	private final String prefix;
+	private final Charset charset;
+	private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+	private long offset;
+	private long lastUpdate;
+
+	public LogMirror(Run run, PrintStream logger) {
+		this.run = run;
+		this.logger = logger;
+		this.prefix = "[" + run.getFullDisplayName() + "] ";
+		this.charset = run.getCharset();
+	}
+
+	public void update() throws IOException {
+		if(System.currentTimeMillis() - lastUpdate >= INTERVAL_MILLIS) {
+			read();
+			writeLines(false);
+		}
+	}
+
+	/**
+	 * Writes everything left in the downstream's log, including a final line without a line break.
+	 */
+	public void finish() throws IOException {
+		read();
+		writeLines(true);
+	}
+
+	private void read() throws IOException {
+		lastUpdate = System.currentTimeMillis();
+		offset = run.getLogText().writeLogTo(offset, buffer);
+	}
+
+	private void writeLines(boolean includePartialLine) {
+		byte[] bytes = buffer.toByteArray();
+		int lineStart = 0;
+		for(int i = 0; i < bytes.length; i++) {
+			if(bytes[i] == '\n') {
+				writeLine(bytes, lineStart, i);
+				lineStart = i + 1;
+			}
+		}
+		if(includePartialLine && lineStart < bytes.length) {
+			writeLine(bytes, lineStart, bytes.length);
+			lineStart = bytes.length;
+		}
+
+		//Keep the partial line until the rest of it is written.
+		buffer.reset();
+		buffer.write(bytes, lineStart, bytes.length - lineStart);
+	}
+
+	private void writeLine(byte[] bytes, int start, int end) {
+		if(end > start && bytes[end - 1] == '\r') {
+			end--;
+		}
+		logger.println(prefix + new String(bytes, start, end - start, charset));
+	}
+}
@@ -0,0 +1,182 @@
+package com.attask.jenkins;
+
+import hudson.console.ConsoleNote;
+import hudson.model.Run;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads the end of a console log without reading the whole log.
+ * Plain logs are read backwards in fixed-size blocks. Compressed (.gz) logs can't be read backwards,
+ * so they are streamed, keeping only the tail in memory.
+ *
+ * Console notes are stripped from the returned text. When the tail is cut out of the middle of the log,
+ * the partial line at the cut is dropped, so half a character or half a console note is never decoded.
+ * No more than {@link #MAX_TAIL_BYTES} bytes are read, however long the lines are.
+ */
+public class LogTail {
+	public static final int MAX_TAIL_BYTES = 16 * 1024 * 1024;
+	private static final int BLOCK_SIZE = 8192;
+
+	public static List<String> tailLines(Run run, int maxLines) throws IOException {
+		return tailLines(run.getLogFile(), run.getCharset(), maxLines);
+	}
+
+	public static String tailBytes(Run run, int maxBytes) throws IOException {
+		return tailBytes(run.getLogFile(), run.getCharset(), maxBytes);
+	}
+
+	public static List<String> tailLines(File logFile, Charset charset, int maxLines) throws IOException {
+		return tailLines(logFile, charset, maxLines, MAX_TAIL_BYTES);
+	}
+
+	/**
+	 * @return The last maxLines lines, or as many of them as fit in maxBytes bytes.
+	 */
+	static List<String> tailLines(File logFile, Charset charset, int maxLines, int maxBytes) throws IOException {
+		if(maxLines <= 0 || maxBytes <= 0 || !logFile.isFile()) {
+			return new ArrayList<String>(0);
+		}
+		if(isCompressed(logFile)) {
+			List<String> lines = splitLines(tailCompressed(logFile, charset, maxBytes));
+			return new ArrayList<String>(lines.subList(Math.max(0, lines.size() - maxLines), lines.size()));
+		}
+
+		RandomAccessFile file = new RandomAccessFile(logFile, "r");
+		try {
+			long length = file.length();
+			long limit = Math.max(0, length - maxBytes);
+			long start = findStartOfLastLines(file, maxLines, limit);
+			if(start < 0) {
+				return new ArrayList<String>(0);
+			}
+			return splitLines(read(file, charset, start, false));
+		} finally {
+			file.close();
+		}
+	}
+
+	public static String tailBytes(File logFile, Charset charset, int maxBytes) throws IOException {
+		if(maxBytes <= 0 || !logFile.isFile()) {
+			return "";
+		}
+		maxBytes = Math.min(maxBytes, MAX_TAIL_BYTES);
+		if(isCompressed(logFile)) {
+			return ConsoleNote.removeNotes(tailCompressed(logFile, charset, maxBytes));
+		}
+
+		RandomAccessFile file = new RandomAccessFile(logFile, "r");
+		try {
+			long start = Math.max(0, file.length() - maxBytes);
+			return ConsoleNote.removeNotes(read(file, charset, start, start > 0));
+		} finally {
+			file.close();
+		}
+	}
+
+	private static String read(RandomAccessFile file, Charset charset, long start, boolean cut) throws IOException {
+		byte[] tail = new byte[(int) (file.length() - start)];
+		file.seek(start);
+		file.readFully(tail);
+		int cleanStart = cut ? findCleanStart(tail, 0, tail.length) : 0;
+		return new String(tail, cleanStart, tail.length - cleanStart, charset);
+	}
+
+	/**
+	 * @return The offset of the first byte of the last maxLines lines, or of the first whole line at or after limit
+	 * if they start before it. -1 if the last line alone starts before limit.
+	 */
+	private static long findStartOfLastLines(RandomAccessFile file, int maxLines, long limit) throws IOException {
+		long length = file.length();
+		long position = length;
+		//The line starting at limit is preceded by the line break just before it.
+		long end = Math.max(0, limit - 1);
+		long firstLine = -1;
+		int lineBreaks = 0;
+		byte[] block = new byte[BLOCK_SIZE];
+		while(position > end) {
+			int size = (int) Math.min(BLOCK_SIZE, position - end);
+			position -= size;
+			file.seek(position);
+			file.readFully(block, 0, size);
+			for(int i = size - 1; i >= 0; i--) {
+				//A line break at the very end of the file doesn't start another line.
+				if(block[i] == '\n' && position + i != length - 1) {
+					lineBreaks++;
+					firstLine = position + i + 1;
+					if(lineBreaks == maxLines) {
+						return firstLine;
+					}
+				}
+			}
+		}
+		return limit == 0 ? 0 : firstLine;
+	}
+
+	private static String tailCompressed(File logFile, Charset charset, int maxBytes) throws IOException {
+		maxBytes = Math.min(maxBytes, MAX_TAIL_BYTES);
+		//Double buffer: keep the last maxBytes bytes by sliding them down whenever the buffer fills up.
+		byte[] buffer = new byte[maxBytes * 2];
+		int filled = 0;
+		boolean truncated = false;
+		InputStream stream = new GZIPInputStream(new FileInputStream(logFile));
+		try {
+			int read;
+			while((read = stream.read(buffer, filled, buffer.length - filled)) != -1) {
+				filled += read;
+				if(filled == buffer.length) {
+					System.arraycopy(buffer, maxBytes, buffer, 0, maxBytes);
+					filled = maxBytes;
+					truncated = true;
+				}
+			}
+		} finally {
+			stream.close();
+		}
+		int start = Math.max(0, filled - maxBytes);
+		if(start > 0 || truncated) {
+			start = findCleanStart(buffer, start, filled);
+		}
+		return new String(buffer, start, filled - start, charset);
+	}
+
+	/**
+	 * @return The offset after the partial line at the start, or after the partial UTF-8 character if there's no line break.
+	 */
+	static int findCleanStart(byte[] bytes, int start, int end) {
+		for(int i = start; i < end; i++) {
+			if(bytes[i] == '\n') {
+				return i + 1;
+			}
+		}
+		int result = start;
+		while(result < end && (bytes[result] & 0xC0) == 0x80) {
+			result++;
+		}
+		return result;
+	}
+
+	private static List<String> splitLines(String text) {
+		List<String> result = new ArrayList<String>();
+		int lineStart = 0;
+		int length = text.length();
+		while(lineStart < length) {
+			int lineEnd = text.indexOf('\n', lineStart);
+			if(lineEnd < 0) {
+				lineEnd = length;
+			}
+			int contentEnd = lineEnd > lineStart && text.charAt(lineEnd - 1) == '\r' ? lineEnd - 1 : lineEnd;
+			result.add(ConsoleNote.removeNotes(text.substring(lineStart, contentEnd)));
+			lineStart = lineEnd + 1;
+		}
+		return result;
+	}
+
+	private static boolean isCompressed(File logFile) {
+		return logFile.getName().endsWith(".gz");
+	}
+}
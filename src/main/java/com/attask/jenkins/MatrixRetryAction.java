@@ -0,0 +1,104 @@
+package com.attask.jenkins;
+
+import hudson.Extension;
+import hudson.matrix.Combination;
+import hudson.matrix.MatrixBuild;
+import hudson.matrix.MatrixConfiguration;
+import hudson.matrix.MatrixRun;
+import hudson.matrix.listeners.MatrixBuildListener;
+import hudson.model.Action;
+import hudson.model.Result;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.util.*;
+
+/**
+ * Added to a matrix build that retries only the failed configurations of an earlier build.
+ * The other configurations are skipped, and their results from the earlier build are carried over
+ * so the retry's result is the result of the whole matrix.
+ */
+@ExportedBean
+public class MatrixRetryAction implements Action {
+	private final String retriedExternalizableId;
+	private final Set<String> combinationsToRun;
+	private final Map<String, String> carriedOverResults;
+
+	/**
+	 * @param retried The matrix build being retried.
+	 * @param worseThan Configurations with this result or worse are run again.
+	 */
+	public MatrixRetryAction(MatrixBuild retried, Result worseThan) {
+		this.retriedExternalizableId = retried.getExternalizableId();
+		this.combinationsToRun = new TreeSet<String>();
+		this.carriedOverResults = new TreeMap<String, String>();
+
+		//If the retried build was itself a partial retry, what it carried over still applies.
+		MatrixRetryAction previous = retried.getAction(MatrixRetryAction.class);
+		if(previous != null) {
+			carriedOverResults.putAll(previous.carriedOverResults);
+		}
+
+		for (MatrixRun run : retried.getExactRuns()) {
+			String combination = run.getParent().getCombination().toString();
+			Result result = run.getResult();
+			if(result == null || result.isWorseOrEqualTo(worseThan)) {
+				combinationsToRun.add(combination);
+				carriedOverResults.remove(combination);
+			} else {
+				carriedOverResults.put(combination, result.toString());
+			}
+		}
+	}
+
+	public boolean shouldRun(Combination combination) {
+		return combinationsToRun.contains(combination.toString());
+	}
+
+	/**
+	 * @return The worst of the carried over results, or SUCCESS if nothing was carried over.
+	 */
+	public Result getCarriedOverResult() {
+		Result result = Result.SUCCESS;
+		for (String carriedOverResult : carriedOverResults.values()) {
+			result = result.combine(Result.fromString(carriedOverResult));
+		}
+		return result;
+	}
+
+	@Exported
+	public String getRetriedExternalizableId() {
+		return retriedExternalizableId;
+	}
+
+	@Exported
+	public List<String> getCombinationsToRun() {
+		return new ArrayList<String>(combinationsToRun);
+	}
+
+	@Exported
+	public Map<String, String> getCarriedOverResults() {
+		return Collections.unmodifiableMap(carriedOverResults);
+	}
+
+	public String getIconFileName() {
+		return null;
+	}
+
+	public String getDisplayName() {
+		return null;
+	}
+
+	public String getUrlName() {
+		return null;
+	}
+
+	@Extension
+	public static class MatrixBuildListenerImpl extends MatrixBuildListener {
+		@Override
+		public boolean doBuildConfiguration(MatrixBuild build, MatrixConfiguration configuration) {
+			MatrixRetryAction action = build.getAction(MatrixRetryAction.class);
+			return action == null || action.shouldRun(configuration.getCombination());
+		}
+	}
+}
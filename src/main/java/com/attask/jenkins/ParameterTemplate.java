@@ -0,0 +1,102 @@
+package com.attask.jenkins;
+
+import hudson.model.*;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The parsed form of a step's "name=value" parameters block (one per line, '#' starts a comment).
+ * Parse it once and reuse it for every project being triggered.
+ */
+public class ParameterTemplate {
+	private final String text;
+	private final Map<String, String> properties;
+
+	public ParameterTemplate(String text) {
+		this.text = text == null ? "" : text;
+		this.properties = Collections.unmodifiableMap(parse(this.text));
+	}
+
+	/**
+	 * @return The template for the given text, reusing the cached one if the text hasn't changed.
+	 */
+	public static ParameterTemplate compile(String text, ParameterTemplate cached) {
+		if(cached != null && cached.text.equals(text == null ? "" : text)) {
+			return cached;
+		}
+		return new ParameterTemplate(text);
+	}
+
+	public Map<String, String> getProperties() {
+		return properties;
+	}
+
+	public Action createParametersAction(AbstractProject project, BuildListener listener, boolean echoParameters) {
+		PrintStream logger = listener.getLogger();
+
+		@SuppressWarnings("unchecked")
+		ParametersDefinitionProperty projectProperties = (ParametersDefinitionProperty)project.getProperty(ParametersDefinitionProperty.class);
+		if(projectProperties == null || projectProperties.getParameterDefinitions() == null) {
+			return new ParametersAction(new ArrayList<ParameterValue>(0));
+		}
+
+		List<ParameterDefinition> parameterDefinitions = projectProperties.getParameterDefinitions();
+		List<ParameterValue> result = new ArrayList<ParameterValue>(parameterDefinitions.size());
+		for (ParameterDefinition parameterDefinition : parameterDefinitions) {
+			String propertyName = parameterDefinition.getName();
+			String value = properties.get(propertyName);
+			if(value != null) {
+				if(echoParameters) {
+					logger.println("using variable: '" + propertyName + "' -> '" + value + "'");
+				}
+				result.add(new StringParameterValue(propertyName, value));
+			} else {
+				//Defaults aren't cached since some parameter types compute them on every call.
+				ParameterValue defaultParameterValue = parameterDefinition.getDefaultParameterValue();
+				if(echoParameters) {
+					logger.println("using default for: '" + defaultParameterValue.getName() + "' -> '" + defaultParameterValue.toString() + "'");
+				}
+				result.add(defaultParameterValue);
+			}
+		}
+		return new ParametersAction(result);
+	}
+
+	static Map<String, String> parse(String text) {
+		Map<String, String> properties = new HashMap<String, String>();
+		int length = text.length();
+		int lineStart = 0;
+		//Remember the next '#' and '=' so text without them isn't rescanned for every line.
+		int commentStart = -1;
+		int equals = -1;
+		while(lineStart < length) {
+			int lineEnd = text.indexOf('\n', lineStart);
+			if(lineEnd < 0) {
+				lineEnd = length;
+			}
+			if(commentStart < lineStart) {
+				commentStart = text.indexOf('#', lineStart);
+				if(commentStart < 0) {
+					commentStart = length;
+				}
+			}
+			if(equals < lineStart) {
+				equals = text.indexOf('=', lineStart);
+				if(equals < 0) {
+					equals = length;
+				}
+			}
+			int contentEnd = commentStart < lineEnd ? commentStart : lineEnd;
+			if(equals < contentEnd) {
+				properties.put(text.substring(lineStart, equals).trim(), text.substring(equals + 1, contentEnd).trim());
+			}
+			lineStart = lineEnd + 1;
+		}
+		return properties;
+	}
+}
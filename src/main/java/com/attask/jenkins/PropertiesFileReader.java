@@ -0,0 +1,62 @@
+package com.attask.jenkins;
+
+import hudson.FilePath;
+import hudson.remoting.VirtualChannel;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+
+/**
+ * Reads and merges several properties files relative to a directory in a single call,
+ * so reading them from a slave's workspace only takes one remote round-trip.
+ * Files listed later override the values of files listed earlier.
+ */
+public class PropertiesFileReader implements FilePath.FileCallable<Map<String, String>> {
+	private static final long serialVersionUID = 1L;
+	public static final long DEFAULT_MAX_BYTES = 1024 * 1024;
+
+	private final List<String> fileNames;
+	private final long maxBytes;
+
+	/**
+	 * @param fileNames Comma separated list of properties files, relative to the directory this is invoked on.
+	 * @param maxBytes The most the files may add up to. Larger files fail the read rather than being injected.
+	 */
+	public PropertiesFileReader(String fileNames, long maxBytes) {
+		this.fileNames = new ArrayList<String>();
+		for (String fileName : fileNames.split(",")) {
+			if(!fileName.trim().isEmpty()) {
+				this.fileNames.add(fileName.trim());
+			}
+		}
+		this.maxBytes = maxBytes;
+	}
+
+	public Map<String, String> invoke(File dir, VirtualChannel channel) throws IOException, InterruptedException {
+		long totalBytes = 0;
+		for (String fileName : fileNames) {
+			totalBytes += new File(dir, fileName).length();
+		}
+		if(totalBytes > maxBytes) {
+			throw new IOException("The properties files " + fileNames + " are " + totalBytes + " bytes, which is more than the limit of " + maxBytes + " bytes.");
+		}
+
+		Map<String, String> result = new LinkedHashMap<String, String>();
+		for (String fileName : fileNames) {
+			Properties properties = new Properties();
+			InputStream read = new FileInputStream(new File(dir, fileName));
+			try {
+				properties.load(read);
+			} finally {
+				read.close();
+			}
+			for (Map.Entry<Object, Object> entry : properties.entrySet()) {
+				result.put((String)entry.getKey(), (String)entry.getValue());
+			}
+		}
+		return result;
+	}
+}
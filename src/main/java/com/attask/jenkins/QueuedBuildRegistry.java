@@ -0,0 +1,181 @@
+package com.attask.jenkins;
+
+import hudson.Extension;
+import hudson.model.AbstractBuild;
+import hudson.model.Item;
+import hudson.model.Queue;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+import hudson.model.queue.QueueTaskFuture;
+import jenkins.model.Jenkins;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Remembers the builds triggered without waiting for them to start, by queue id,
+ * so a later step can wait on "queue:&lt;id&gt;" instead of a build number.
+ * When one of these builds starts, it's added to the downstream builds of the build that triggered it.
+ *
+ * Once a build has started only its id is kept. The registry isn't persisted,
+ * so queue ids handed out before a restart can't be resolved after it.
+ */
+public class QueuedBuildRegistry {
+	private static final Logger LOGGER = Logger.getLogger(QueuedBuildRegistry.class.getName());
+	public static final String PREFIX = "queue:";
+	private static final int MAX_ENTRIES = 10000;
+
+	private static final Map<Integer, Entry> entries = new LinkedHashMap<Integer, Entry>() {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Integer, Entry> eldest) {
+			return size() > MAX_ENTRIES;
+		}
+	};
+	//The entries whose builds haven't been seen to start.
+	private static final List<Entry> queuedEntries = new ArrayList<Entry>();
+
+	/**
+	 * @return "queue:&lt;id&gt;" for the future's queue item, or null if it's no longer in the queue.
+	 */
+	public static String register(QueueTaskFuture<AbstractBuild> future, Run upstream) {
+		for (Queue.Item item : Jenkins.getInstance().getQueue().getItems()) {
+			if(item.getFuture() == future) {
+				String projectName = item.task instanceof Item ? ((Item) item.task).getFullName() : null;
+				Entry entry = new Entry(future, projectName, upstream.getExternalizableId());
+				synchronized (entries) {
+					entries.put(item.id, entry);
+					queuedEntries.add(entry);
+					if(queuedEntries.size() > MAX_ENTRIES) {
+						queuedEntries.remove(0);
+					}
+				}
+				//It may have started before it was registered, in which case the listener didn't see it.
+				linkStartedBuilds();
+				return PREFIX + item.id;
+			}
+		}
+		return null;
+	}
+
+	public static boolean isQueueReference(String reference) {
+		return reference != null && reference.startsWith(PREFIX);
+	}
+
+	/**
+	 * @param projectName The full name of the project the build is expected to belong to, or null to accept any project.
+	 * @return The started build, or null if the queue id is unknown (e.g. it was handed out before a restart).
+	 * @throws IllegalArgumentException If the queued build belongs to a different project.
+	 */
+	public static AbstractBuild awaitStart(String reference, String projectName, long timeoutMillis) throws InterruptedException, ExecutionException, TimeoutException {
+		int queueId = Integer.parseInt(reference.substring(PREFIX.length()).trim());
+		Entry entry;
+		synchronized (entries) {
+			entry = entries.get(queueId);
+		}
+		if(entry == null) {
+			return null;
+		}
+		if(projectName != null && entry.projectName != null && !projectName.equals(entry.projectName)) {
+			throw new IllegalArgumentException(reference + " is a build of " + entry.projectName + ", not " + projectName + ".");
+		}
+		return entry.awaitStart(timeoutMillis);
+	}
+
+	private static void linkStartedBuilds() {
+		List<Entry> started = new ArrayList<Entry>();
+		synchronized (entries) {
+			Iterator<Entry> iterator = queuedEntries.iterator();
+			while(iterator.hasNext()) {
+				Entry entry = iterator.next();
+				QueueTaskFuture<AbstractBuild> future = entry.future;
+				if(future == null || future.getStartCondition().isDone()) {
+					iterator.remove();
+					started.add(entry);
+				}
+			}
+		}
+
+		for (Entry entry : started) {
+			QueueTaskFuture<AbstractBuild> future = entry.future;
+			if(future == null) {
+				continue;
+			}
+			try {
+				AbstractBuild build = future.getStartCondition().get();
+				entry.started(build);
+				addToUpstream(entry.upstreamExternalizableId, build);
+			} catch (CancellationException e) {
+				//Kept so waiters find out it was canceled.
+			} catch (ExecutionException e) {
+				//Kept so waiters find out it couldn't be started.
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	private static void addToUpstream(String upstreamExternalizableId, AbstractBuild build) {
+		Run upstream = Run.fromExternalizableId(upstreamExternalizableId);
+		if(upstream == null) {
+			return;
+		}
+		DownstreamBuildsAction.addDownstreamBuild(upstream, build);
+		if(!upstream.isBuilding()) {
+			try {
+				upstream.save();
+			} catch (IOException e) {
+				LOGGER.log(Level.WARNING, "Unable to save " + build + " as a downstream build of " + upstream, e);
+			}
+		}
+	}
+
+	private static class Entry {
+		private final String projectName;
+		private final String upstreamExternalizableId;
+		private volatile QueueTaskFuture<AbstractBuild> future;
+		private volatile String externalizableId;
+
+		public Entry(QueueTaskFuture<AbstractBuild> future, String projectName, String upstreamExternalizableId) {
+			this.future = future;
+			this.projectName = projectName;
+			this.upstreamExternalizableId = upstreamExternalizableId;
+		}
+
+		public void started(AbstractBuild build) {
+			externalizableId = build.getExternalizableId();
+			future = null;
+		}
+
+		public AbstractBuild awaitStart(long timeoutMillis) throws InterruptedException, ExecutionException, TimeoutException {
+			QueueTaskFuture<AbstractBuild> queueTaskFuture = future;
+			if(queueTaskFuture != null) {
+				return queueTaskFuture.getStartCondition().get(timeoutMillis, TimeUnit.MILLISECONDS);
+			}
+			return (AbstractBuild) AbstractBuild.fromExternalizableId(externalizableId);
+		}
+	}
+
+	@Extension
+	public static class RunListenerImpl extends RunListener<AbstractBuild> {
+		public RunListenerImpl() {
+			super(AbstractBuild.class);
+		}
+
+		@Override
+		public void onStarted(AbstractBuild build, TaskListener listener) {
+			linkStartedBuilds();
+		}
+	}
+}
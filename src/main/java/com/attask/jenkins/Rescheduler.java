@@ -0,0 +1,224 @@
+package com.attask.jenkins;
+
+import hudson.Util;
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.Action;
+import hudson.model.BuildListener;
+import hudson.model.Cause;
+import hudson.model.Queue;
+import hudson.model.Run;
+import hudson.model.queue.QueueTaskFuture;
+import jenkins.model.Jenkins;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Schedules a project. When it can't be queued because an identical item (same parameters) is already in the queue,
+ * the queue has already added our cause to that item, so we attach to it and share its build.
+ *
+ * If the item can't be found (e.g. it left the queue in the meantime), keeps track of when to try again.
+ * The next attempt is ready as soon as the queue item that blocked us leaves the queue.
+ * A capped exponential backoff with jitter is used as the fallback in case we can't find that item.
+ */
+public class Rescheduler {
+	private static final long INITIAL_BACKOFF_MILLIS = 2000;
+	private static final long MAX_BACKOFF_MILLIS = 60000;
+	private static final Random random = new Random();
+
+	private final AbstractProject project;
+	private final Cause cause;
+	private final Action[] actions;
+	private int attempts;
+	private long nextAttemptMillis;
+	private Future<?> blockerStart;
+	private Future<?> blockerFuture;
+	private boolean coalesced;
+
+	public Rescheduler(AbstractProject project, Cause cause, Action... actions) {
+		this.project = project;
+		this.cause = cause;
+		this.actions = actions;
+	}
+
+	/**
+	 * @return The future of the scheduled (or attached to) build, or null if it couldn't be queued.
+	 */
+	@SuppressWarnings("unchecked")
+	public QueueTaskFuture<AbstractBuild> tryToSchedule() {
+		attempts++;
+		QueueTaskFuture<AbstractBuild> future = project.scheduleBuild2(0, cause, actions);
+		coalesced = false;
+		if(future == null) {
+			future = findIdenticalItem();
+			coalesced = future != null;
+		}
+		if(future == null) {
+			findBlocker();
+			nextAttemptMillis = System.currentTimeMillis() + nextBackoff();
+		} else {
+			blockerStart = null;
+			blockerFuture = null;
+		}
+		return future;
+	}
+
+	/**
+	 * @return The future of the scheduled (or attached to) build, or null (already logged) if it couldn't be queued in maxAttempts tries.
+	 */
+	public QueueTaskFuture<AbstractBuild> scheduleWithRetries(BuildListener listener, int maxAttempts) throws InterruptedException {
+		QueueTaskFuture<AbstractBuild> future;
+		while((future = tryToSchedule()) == null && attempts < maxAttempts) {
+			listener.error("Unable to queue " + project.getFullName() + ". Trying again once the queued build leaves the queue. (try: " + attempts + "/" + maxAttempts + ")");
+			awaitReady();
+		}
+		if(future == null) {
+			listener.error("Didn't start " + project.getFullName() + "! It couldn't be queued and no identical queued build was found to attach to. The project may be disabled or otherwise not buildable.");
+		}
+		return future;
+	}
+
+	public boolean isReady() {
+		return isBlockerGone() || getMillisUntilReady() <= 0;
+	}
+
+	public boolean isWaitingOnBlocker() {
+		return blockerFuture != null && !isBlockerGone();
+	}
+
+	public long getMillisUntilReady() {
+		return Math.max(0, nextAttemptMillis - System.currentTimeMillis());
+	}
+
+	public void awaitReady() throws InterruptedException {
+		long wait = getMillisUntilReady();
+		if(wait <= 0 || isBlockerGone()) {
+			return;
+		}
+		if(blockerStart == null) {
+			Thread.sleep(wait);
+			return;
+		}
+		try {
+			blockerStart.get(wait, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException ignore) {
+			//Backoff elapsed. Try again anyway.
+		} catch (CancellationException ignore) {
+			//The blocker was canceled, so it's no longer in the way.
+		} catch (ExecutionException ignore) {
+			//The blocker failed to start, so it's no longer in the way.
+		}
+	}
+
+	public AbstractProject getProject() {
+		return project;
+	}
+
+	public int getAttempts() {
+		return attempts;
+	}
+
+	public boolean isCoalesced() {
+		return coalesced;
+	}
+
+	/**
+	 * @return True if anything other than the given upstream build caused the same queued or running build,
+	 * e.g. another upstream or a user whose identical request was folded into it.
+	 */
+	public static boolean isShared(QueueTaskFuture<AbstractBuild> scheduledBuild, Run upstream) {
+		for (Queue.Item item : Jenkins.getInstance().getQueue().getItems()) {
+			if(item.getFuture() == scheduledBuild) {
+				return countOtherCauses(item.getCauses(), upstream) > 0;
+			}
+		}
+		if(scheduledBuild.getStartCondition().isDone()) {
+			try {
+				return countOtherCauses(scheduledBuild.getStartCondition().get().getCauses(), upstream) > 0;
+			} catch (ExecutionException e) {
+				//Never started, so there's nothing to share.
+			} catch (CancellationException e) {
+				//Never started, so there's nothing to share.
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		return false;
+	}
+
+	private static int countOtherCauses(List<Cause> causes, Run upstream) {
+		int result = 0;
+		for (Cause cause : causes) {
+			if(!isCausedBy(cause, upstream)) {
+				result++;
+			}
+		}
+		return result;
+	}
+
+	private static boolean isCausedBy(Cause cause, Run upstream) {
+		if(!(cause instanceof Cause.UpstreamCause)) {
+			return false;
+		}
+		Cause.UpstreamCause upstreamCause = (Cause.UpstreamCause) cause;
+		return upstreamCause.getUpstreamBuild() == upstream.getNumber() && upstream.getParent().getFullName().equals(upstreamCause.getUpstreamProject());
+	}
+
+	private boolean isBlockerGone() {
+		return blockerFuture != null && (blockerFuture.isDone() || blockerStart.isDone());
+	}
+
+	/**
+	 * Finds the queued item of the project that the queue considered identical to ours, the same way the queue does:
+	 * neither its queue actions nor ours want a separate build.
+	 */
+	@SuppressWarnings("unchecked")
+	private QueueTaskFuture<AbstractBuild> findIdenticalItem() {
+		List<Action> ourActions = Arrays.asList(actions);
+		for (Queue.Item item : Jenkins.getInstance().getQueue().getItems()) {
+			if(item.task != project) {
+				continue;
+			}
+			boolean shouldSchedule = false;
+			for (Queue.QueueAction action : item.getActions(Queue.QueueAction.class)) {
+				shouldSchedule |= action.shouldSchedule(ourActions);
+			}
+			for (Queue.QueueAction action : Util.filter(ourActions, Queue.QueueAction.class)) {
+				shouldSchedule |= action.shouldSchedule(new ArrayList<Action>(item.getActions()));
+			}
+			Future<?> future = item.getFuture();
+			if(!shouldSchedule && future instanceof QueueTaskFuture && !future.isCancelled()) {
+				return (QueueTaskFuture<AbstractBuild>) future;
+			}
+		}
+		return null;
+	}
+
+	private void findBlocker() {
+		blockerStart = null;
+		blockerFuture = null;
+		for (Queue.Item item : Jenkins.getInstance().getQueue().getItems()) {
+			if(item.task == project) {
+				Future<?> future = item.getFuture();
+				blockerFuture = future;
+				blockerStart = future instanceof QueueTaskFuture ? ((QueueTaskFuture) future).getStartCondition() : future;
+				return;
+			}
+		}
+	}
+
+	private long nextBackoff() {
+		int exponent = Math.min(attempts - 1, 30);
+		long backoff = Math.min(MAX_BACKOFF_MILLIS, INITIAL_BACKOFF_MILLIS << exponent);
+		//Jitter between half and all of the backoff so blocked upstream builds don't retry in lockstep.
+		return backoff / 2 + (long) (random.nextDouble() * (backoff / 2));
+	}
+}
@@ -13,6 +13,7 @@ import hudson.model.Run;
 public class RetriedAction implements Action {
 	private final int buildNumber;
 	private final String externalizableId;
+	private volatile String retryExternalizableId;
 
 	public RetriedAction(Run run) {
 		if(run == null) {
@@ -28,21 +29,42 @@ public class RetriedAction implements Action {
 		int newerBuildNumber = buildNumber;
 		int numberTries = 0;
 		while(true) {
-			while(newerBuildNumber < project.getNextBuildNumber()) {
-				newerBuildNumber++;
-				Run<?, ?> newBuild = project.getBuildByNumber(newerBuildNumber);
-				RetriedCause cause = newBuild.getCause(RetriedCause.class);
-				if(cause != null) {
-					if(this.externalizableId.equals(cause.getExternalizableId())) {
-						return newBuild;
+			Run<?, ?> retry = getRetry();
+			if(retry != null) {
+				return retry;
+			}
+			Run<?, ?> indexedBuild = RetriedBuildIndex.findStartedRetry(externalizableId);
+			if(indexedBuild != null) {
+				return indexedBuild;
+			}
+			if(RetriedBuildIndex.isRetryCanceled(externalizableId)) {
+				listener.error("The retried build was canceled before it started.");
+				break;
+			}
+
+			//Only scan the build history if the index doesn't know about the retry, e.g. after a restart.
+			if(!RetriedBuildIndex.isRetryQueued(externalizableId)) {
+				while(newerBuildNumber < project.getNextBuildNumber()) {
+					newerBuildNumber++;
+					Run<?, ?> newBuild = project.getBuildByNumber(newerBuildNumber);
+					if(newBuild == null) {
+						continue;
+					}
+					RetriedCause cause = newBuild.getCause(RetriedCause.class);
+					if(cause != null) {
+						if(this.externalizableId.equals(cause.getExternalizableId())) {
+							return newBuild;
+						}
 					}
 				}
 			}
 			try {
 				listener.getLogger().println("Still haven't found the retried job. Trying again in 1 second.");
 				numberTries++;
-				if(numberTries > numberRetries)
-				Thread.sleep(1000);
+				if(numberTries > numberRetries) {
+					break;
+				}
+				RetriedBuildIndex.awaitRetryStart(externalizableId, 1000);
 			} catch (InterruptedException e) {
 				listener.error("Interrupted. Bailing out.", e.getMessage());
 				break;
@@ -51,6 +73,38 @@ public class RetriedAction implements Action {
 		return null;
 	}
 
+	/**
+	 * Follows the retries of the given run as far as they've been recorded, without scanning any build history.
+	 * @return The latest recorded retry of the run, or the run itself if it hasn't been retried.
+	 */
+	public static Run findLatestRetry(Run run) {
+		while(run != null && !run.isBuilding()) {
+			RetriedAction retriedAction = run.getAction(RetriedAction.class);
+			Run retry = retriedAction == null ? null : retriedAction.getRetry();
+			if(retry == null) {
+				break;
+			}
+			run = retry;
+		}
+		return run;
+	}
+
+	/**
+	 * @return The retry of this build, if it has started. Null if it hasn't or it no longer exists.
+	 */
+	public Run getRetry() {
+		String retryId = retryExternalizableId;
+		return retryId == null ? null : Run.fromExternalizableId(retryId);
+	}
+
+	public String getRetryExternalizableId() {
+		return retryExternalizableId;
+	}
+
+	public void setRetry(Run retry) {
+		this.retryExternalizableId = retry.getExternalizableId();
+	}
+
 	public int getBuildNumber() {
 		return buildNumber;
 	}
@@ -0,0 +1,151 @@
+package com.attask.jenkins;
+
+import hudson.Extension;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+import hudson.model.queue.QueueTaskFuture;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * In-memory index from the externalizable id of a retried build to its retry,
+ * so waiters don't have to scan the job's build history looking for the {@link RetriedCause}.
+ *
+ * The index is filled when {@link RetryBuildWrapper} schedules the retry and when the retry starts.
+ * It is not persisted, so callers must fall back to scanning after a restart.
+ * A retry is dropped from the index once it completes, since by then its forward pointer is saved on the build it retried,
+ * and each map is capped in case retries are canceled or never complete.
+ */
+public class RetriedBuildIndex {
+	private static final Logger LOGGER = Logger.getLogger(RetriedBuildIndex.class.getName());
+
+	private static final int MAX_ENTRIES = 10000;
+
+	private static final Map<String, QueueTaskFuture> queuedRetries = createCappedMap();
+	private static final Map<String, String> startedRetries = createCappedMap();
+
+	private static <V> Map<String, V> createCappedMap() {
+		return Collections.synchronizedMap(new LinkedHashMap<String, V>() {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+				return size() > MAX_ENTRIES;
+			}
+		});
+	}
+
+	public static void retryScheduled(Run original, QueueTaskFuture future) {
+		if(future != null) {
+			queuedRetries.put(original.getExternalizableId(), future);
+		}
+	}
+
+	public static void retryStarted(String originalExternalizableId, Run retry) {
+		startedRetries.put(originalExternalizableId, retry.getExternalizableId());
+		queuedRetries.remove(originalExternalizableId);
+	}
+
+	public static Run findStartedRetry(String originalExternalizableId) {
+		String retryId = startedRetries.get(originalExternalizableId);
+		if(retryId == null) {
+			return null;
+		}
+		return Run.fromExternalizableId(retryId);
+	}
+
+	public static boolean isRetryQueued(String originalExternalizableId) {
+		QueueTaskFuture future = queuedRetries.get(originalExternalizableId);
+		return future != null && !future.isCancelled();
+	}
+
+	public static boolean isRetryCanceled(String originalExternalizableId) {
+		QueueTaskFuture future = queuedRetries.get(originalExternalizableId);
+		return future != null && future.isCancelled();
+	}
+
+	/**
+	 * Blocks until the queued retry of the given build starts, or the timeout elapses.
+	 * If the retry isn't known to be queued, simply sleeps for the timeout.
+	 */
+	public static void awaitRetryStart(String originalExternalizableId, long timeoutMillis) throws InterruptedException {
+		QueueTaskFuture future = queuedRetries.get(originalExternalizableId);
+		if(future == null) {
+			Thread.sleep(timeoutMillis);
+			return;
+		}
+		try {
+			Object executable = future.getStartCondition().get(timeoutMillis, TimeUnit.MILLISECONDS);
+			if(executable instanceof Run) {
+				retryStarted(originalExternalizableId, (Run) executable);
+			}
+		} catch (TimeoutException ignore) {
+			//Still in the queue.
+		} catch (CancellationException ignore) {
+			//isRetryCanceled will report it.
+		} catch (ExecutionException ignore) {
+			//isRetryCanceled will report it.
+		}
+	}
+
+	@Extension
+	public static class RunListenerImpl extends RunListener<Run> {
+		public RunListenerImpl() {
+			super(Run.class);
+		}
+
+		@Override
+		public void onStarted(Run run, TaskListener listener) {
+			RetriedCause cause = (RetriedCause) run.getCause(RetriedCause.class);
+			if(cause != null) {
+				retryStarted(cause.getExternalizableId(), run);
+				recordForwardPointer(cause.getExternalizableId(), run);
+			}
+		}
+
+		/**
+		 * Saves the retry's id on the build it retried, so waiters can follow the chain of retries after a restart too.
+		 */
+		private void recordForwardPointer(String originalExternalizableId, Run retry) {
+			Run original = Run.fromExternalizableId(originalExternalizableId);
+			if(original == null) {
+				return;
+			}
+			RetriedAction retriedAction = original.getAction(RetriedAction.class);
+			if(retriedAction == null) {
+				return;
+			}
+			retriedAction.setRetry(retry);
+			if(original.isBuilding()) {
+				return;
+			}
+			try {
+				original.save();
+			} catch (IOException e) {
+				LOGGER.log(Level.WARNING, "Unable to save the retry of " + originalExternalizableId, e);
+			}
+		}
+
+		@Override
+		public void onCompleted(Run run, TaskListener listener) {
+			RetriedCause cause = (RetriedCause) run.getCause(RetriedCause.class);
+			if(cause != null) {
+				startedRetries.remove(cause.getExternalizableId());
+			}
+		}
+
+		@Override
+		public void onDeleted(Run run) {
+			queuedRetries.remove(run.getExternalizableId());
+			startedRetries.remove(run.getExternalizableId());
+		}
+	}
+}
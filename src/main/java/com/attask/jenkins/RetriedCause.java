@@ -13,12 +13,15 @@ public class RetriedCause extends Cause.UpstreamCause {
 	private final String externalizableId;
 	private final String url;
 	private final String buildName;
+	private final int attempt;
 
 	public RetriedCause(Run run) {
 		super(run);
 		externalizableId = run.getExternalizableId();
 		url = run.getUrl();
 		buildName = run.getDisplayName();
+		RetriedCause previous = (RetriedCause) run.getCause(RetriedCause.class);
+		attempt = previous == null ? 1 : previous.getAttempt() + 1;
 	}
 
 	public String getExternalizableId() {
@@ -33,8 +36,16 @@ public class RetriedCause extends Cause.UpstreamCause {
 		return buildName;
 	}
 
+	/**
+	 * @return Which retry this is. The first retry is 1.
+	 */
+	public int getAttempt() {
+		//Causes recorded before attempts were counted only ever retried once.
+		return attempt <= 0 ? 1 : attempt;
+	}
+
 	@Override
 	public String getShortDescription() {
-		return "Retry of " + HyperlinkNote.encodeTo("../../../" + getUrl(), getBuildName());
+		return "Retry " + getAttempt() + " of " + HyperlinkNote.encodeTo("../../../" + getUrl(), getBuildName());
 	}
 }
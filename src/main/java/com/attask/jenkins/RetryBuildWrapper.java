@@ -4,12 +4,15 @@ import hudson.Extension;
 import hudson.Launcher;
 import hudson.matrix.*;
 import hudson.model.*;
+import hudson.model.queue.QueueTaskFuture;
 import hudson.tasks.BuildWrapper;
 import hudson.tasks.BuildWrapperDescriptor;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.export.Exported;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * User: Joel Johnson
@@ -17,13 +20,29 @@ import java.io.IOException;
  * Time: 6:59 PM
  */
 public class RetryBuildWrapper extends BuildWrapper implements MatrixAggregatable {
+	/**
+	 * The longest quiet period a retry is given, no matter how many times it's been retried.
+	 */
+	private static final int MAX_QUIET_PERIOD_SECONDS = 3600;
+
 	private final String worseThan;
+	private final int numberRetries;
+	private final int retryDelay;
+	private final boolean retryFailedConfigurationsOnly;
 
+	/**
+	 * @param numberRetries How many times a build may be retried.
+	 * @param retryDelay The quiet period, in seconds, before the first retry. It doubles with each retry after that.
+	 * @param retryFailedConfigurationsOnly For matrix builds, only run the failed configurations again and carry over the results of the rest.
+	 */
 	@DataBoundConstructor
-	public RetryBuildWrapper(int numberRetries, String worseThan) {
+	public RetryBuildWrapper(int numberRetries, String worseThan, int retryDelay, boolean retryFailedConfigurationsOnly) {
 		//I like storing raw values. I know, I'm weird.
 		//Converting worseThan to an Enum then back again converts it to FAILURE if it's invalid.
 		this.worseThan = worseThan == null || worseThan.isEmpty() ? Result.FAILURE.toString() : Result.fromString(worseThan).toString();
+		this.numberRetries = numberRetries <= 0 ? 1 : numberRetries;
+		this.retryDelay = retryDelay < 0 ? 0 : retryDelay;
+		this.retryFailedConfigurationsOnly = retryFailedConfigurationsOnly;
 	}
 
 	@Override
@@ -41,10 +60,22 @@ public class RetryBuildWrapper extends BuildWrapper implements MatrixAggregatabl
 			return true;
 		}
 
-		listener.getLogger().println("retrying " + build);
+		RetriedCause cause = new RetriedCause(build);
+		int quietPeriod = getQuietPeriod(cause.getAttempt());
+		listener.getLogger().println("retrying " + build + " (retry " + cause.getAttempt() + " of " + getNumberRetries() + ") in " + quietPeriod + " seconds");
 		build.addAction(new RetriedAction(build));
+		List<Action> actions = new ArrayList<Action>();
 		ParametersAction action = build.getAction(ParametersAction.class);
-		build.getProject().scheduleBuild(0, new RetriedCause(build), action);
+		if(action != null) {
+			actions.add(action);
+		}
+		if(retryFailedConfigurationsOnly && build instanceof MatrixBuild) {
+			MatrixRetryAction matrixRetryAction = new MatrixRetryAction((MatrixBuild) build, Result.fromString(worseThan));
+			listener.getLogger().println("Only retrying the failed configurations: " + matrixRetryAction.getCombinationsToRun());
+			actions.add(matrixRetryAction);
+		}
+		QueueTaskFuture future = build.getProject().scheduleBuild2(quietPeriod, cause, actions.toArray(new Action[actions.size()]));
+		RetriedBuildIndex.retryScheduled(build, future);
 
 		return true;
 	}
@@ -53,23 +84,56 @@ public class RetryBuildWrapper extends BuildWrapper implements MatrixAggregatabl
 		Result result = build.getResult();
 		if (result != null && result.isWorseOrEqualTo(Result.fromString(worseThan))) {
 			RetriedCause cause = (RetriedCause) build.getCause(RetriedCause.class);
-			if(cause == null) {
+			if(cause == null || cause.getAttempt() < getNumberRetries()) {
 				return true;
 			}
-			listener.error(build + " already retried. Not retrying again.");
+			listener.error(build + " already retried " + cause.getAttempt() + " times. Not retrying again.");
 		}
 		return false;
 	}
 
+	/**
+	 * Backs off exponentially: the retry delay before the first retry, doubling for each retry after that.
+	 */
+	private int getQuietPeriod(int attempt) {
+		long quietPeriod = (long) retryDelay << Math.min(attempt - 1, 20);
+		return (int) Math.min(quietPeriod, MAX_QUIET_PERIOD_SECONDS);
+	}
+
 	@Exported
 	public String getWorseThan() {
 		return worseThan;
 	}
 
+	@Exported
+	public int getNumberRetries() {
+		//Configurations saved before the number of retries was stored only ever retried once.
+		return numberRetries <= 0 ? 1 : numberRetries;
+	}
+
+	@Exported
+	public int getRetryDelay() {
+		return retryDelay;
+	}
+
+	@Exported
+	public boolean getRetryFailedConfigurationsOnly() {
+		return retryFailedConfigurationsOnly;
+	}
+
 	public MatrixAggregator createAggregator(MatrixBuild build, Launcher launcher, BuildListener listener) {
 		return new MatrixAggregator(build, launcher, listener) {
 			@Override
 			public boolean endBuild() throws InterruptedException, IOException {
+				//A partial retry's result has to include the configurations it skipped.
+				MatrixRetryAction matrixRetryAction = build.getAction(MatrixRetryAction.class);
+				if(matrixRetryAction != null) {
+					Result carriedOverResult = matrixRetryAction.getCarriedOverResult();
+					listener.getLogger().println("Carried over the results of " + matrixRetryAction.getCarriedOverResults().size() + " configurations from the retried build: " + carriedOverResult);
+					if(carriedOverResult.isWorseThan(Result.SUCCESS)) {
+						build.setResult(carriedOverResult);
+					}
+				}
 				return tearDown(build, listener);
 			}
 		};
@@ -0,0 +1,197 @@
+package com.attask.jenkins;
+
+import hudson.Extension;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+import hudson.util.DaemonThreadFactory;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Wakes up build steps that are waiting on a run the moment that run completes,
+ * rather than having each of them poll {@link Run#isBuilding()} on an interval.
+ *
+ * In case a completion event is missed, a single shared thread also checks on every run being waited on.
+ * All the runs that are due are checked in one pass, and each run is checked rarely early on
+ * and more often as it nears its estimated duration.
+ */
+@Extension
+public class RunCompletionListener extends RunListener<Run> {
+	private static final Logger LOGGER = Logger.getLogger(RunCompletionListener.class.getName());
+
+	private static final long MIN_CHECK_MILLIS = 1000;
+	private static final long MAX_CHECK_MILLIS = 60000;
+	//For runs that have gone past their estimated duration, or have no estimate.
+	private static final long OVERDUE_CHECK_MILLIS = 5000;
+
+	private static final ConcurrentMap<String, Watch> waiting = new ConcurrentHashMap<String, Watch>();
+	private static final ScheduledExecutorService checker = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory());
+	private static long nextScheduledCheck = Long.MAX_VALUE;
+
+	public RunCompletionListener() {
+		super(Run.class);
+	}
+
+	@Override
+	public void onCompleted(Run run, TaskListener listener) {
+		release(run.getExternalizableId());
+	}
+
+	@Override
+	public void onDeleted(Run run) {
+		release(run.getExternalizableId());
+	}
+
+	private static void release(String externalizableId) {
+		Watch watch = waiting.remove(externalizableId);
+		if(watch != null) {
+			for (CountDownLatch latch : watch.latches) {
+				latch.countDown();
+			}
+		}
+	}
+
+	public static boolean awaitCompletion(Run run, long timeoutMillis) throws InterruptedException {
+		return awaitAnyCompletion(Collections.singleton(run), timeoutMillis);
+	}
+
+	/**
+	 * Blocks until at least one of the given runs completes or the timeout elapses.
+	 * @return True if at least one of the runs is no longer building.
+	 */
+	public static boolean awaitAnyCompletion(Collection<? extends Run> runs, long timeoutMillis) throws InterruptedException {
+		if(anyFinished(runs)) {
+			return true;
+		}
+
+		CountDownLatch latch = new CountDownLatch(1);
+		for (Run run : runs) {
+			register(run, latch);
+		}
+		try {
+			//The run may have finished between the first check and registering the latch.
+			if(anyFinished(runs)) {
+				return true;
+			}
+			return latch.await(timeoutMillis, TimeUnit.MILLISECONDS) || anyFinished(runs);
+		} finally {
+			for (Run run : runs) {
+				unregister(run.getExternalizableId(), latch);
+			}
+		}
+	}
+
+	private static boolean anyFinished(Collection<? extends Run> runs) {
+		for (Run run : runs) {
+			if(!run.isBuilding()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static void register(Run run, CountDownLatch latch) {
+		String externalizableId = run.getExternalizableId();
+		while(true) {
+			Watch watch = waiting.get(externalizableId);
+			if(watch == null) {
+				Watch newWatch = new Watch(run);
+				watch = waiting.putIfAbsent(externalizableId, newWatch);
+				if(watch == null) {
+					watch = newWatch;
+				}
+			}
+			watch.latches.add(latch);
+			//The watch may have been dropped as empty after it was looked up.
+			if(waiting.get(externalizableId) == watch) {
+				scheduleCheck(watch.nextCheck);
+				return;
+			}
+		}
+	}
+
+	private static void unregister(String externalizableId, CountDownLatch latch) {
+		Watch watch = waiting.get(externalizableId);
+		if(watch != null) {
+			watch.latches.remove(latch);
+			if(watch.latches.isEmpty()) {
+				waiting.remove(externalizableId, watch);
+			}
+		}
+	}
+
+	private static synchronized void scheduleCheck(long time) {
+		if(time >= nextScheduledCheck) {
+			return;
+		}
+		nextScheduledCheck = time;
+		checker.schedule(new Runnable() {
+			public void run() {
+				checkAll();
+			}
+		}, Math.max(0, time - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+	}
+
+	private static void checkAll() {
+		synchronized (RunCompletionListener.class) {
+			nextScheduledCheck = Long.MAX_VALUE;
+		}
+
+		long now = System.currentTimeMillis();
+		long next = Long.MAX_VALUE;
+		for (Map.Entry<String, Watch> entry : waiting.entrySet()) {
+			Watch watch = entry.getValue();
+			if(watch.latches.isEmpty()) {
+				waiting.remove(entry.getKey(), watch);
+				continue;
+			}
+			if(watch.nextCheck <= now) {
+				try {
+					if(!watch.run.isBuilding()) {
+						release(entry.getKey());
+						continue;
+					}
+				} catch (RuntimeException e) {
+					LOGGER.log(Level.WARNING, "Unable to check if " + entry.getKey() + " is still building.", e);
+				}
+				watch.nextCheck = now + watch.getCheckInterval(now);
+			}
+			next = Math.min(next, watch.nextCheck);
+		}
+
+		if(next != Long.MAX_VALUE) {
+			scheduleCheck(next);
+		}
+	}
+
+	private static class Watch {
+		private final Run run;
+		private final Set<CountDownLatch> latches = new CopyOnWriteArraySet<CountDownLatch>();
+		//0 if there's no estimate.
+		private final long estimatedEnd;
+		private volatile long nextCheck;
+
+		public Watch(Run run) {
+			this.run = run;
+			long estimatedDuration = run.getEstimatedDuration();
+			this.estimatedEnd = estimatedDuration > 0 ? run.getTimeInMillis() + estimatedDuration : 0;
+			long now = System.currentTimeMillis();
+			this.nextCheck = now + getCheckInterval(now);
+		}
+
+		public long getCheckInterval(long now) {
+			long remaining = estimatedEnd - now;
+			if(estimatedEnd <= 0 || remaining <= 0) {
+				return OVERDUE_CHECK_MILLIS;
+			}
+			return Math.max(MIN_CHECK_MILLIS, Math.min(MAX_CHECK_MILLIS, remaining / 2));
+		}
+	}
+}
@@ -6,15 +6,14 @@ import hudson.Launcher;
 import hudson.model.*;
 import hudson.model.queue.QueueTaskFuture;
 import hudson.tasks.Builder;
-import jenkins.model.Jenkins;
 import org.apache.commons.lang.exception.ExceptionUtils;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.export.Exported;
 
 import java.io.IOException;
 import java.io.PrintStream;
-import java.util.LinkedList;
-import java.util.Scanner;
+import java.util.*;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
 
 /**
@@ -23,122 +22,329 @@ import java.util.concurrent.ExecutionException;
  * Time: 7:13 PM
  */
 public class TriggerAndWaitBuildStep extends Builder {
+	/**
+	 * How often to check on builds that are still in the queue.
+	 */
+	private static final long QUEUE_POLL_MILLIS = 1000;
+	/**
+	 * How often to check on builds that have stopped building but whose executor is still wrapping them up (saving, rotating logs).
+	 */
+	private static final long FINISHING_POLL_MILLIS = 200;
+	/**
+	 * How long to wait between passes when nothing is queued or waiting to be scheduled.
+	 * We are woken up by {@link RunCompletionListener} as soon as a build finishes, even if a completion event is missed.
+	 */
+	private static final long COMPLETION_POLL_MILLIS = 300000;
+
 	private final String jobNames;
 	private final String parameters;
+	private final boolean failFast;
+	private final String failFastWorseThan;
+	private final int maxConcurrentBuilds;
+	private final boolean mirrorDownstreamLogs;
+	private transient volatile ParameterTemplate parameterTemplate;
 
 	@DataBoundConstructor
-	public TriggerAndWaitBuildStep(String jobNames, String parameters) {
+	public TriggerAndWaitBuildStep(String jobNames, String parameters, boolean failFast, String failFastWorseThan, int maxConcurrentBuilds, boolean mirrorDownstreamLogs) {
 		this.jobNames = jobNames;
 		this.parameters = parameters;
+		this.failFast = failFast;
+		this.failFastWorseThan = failFastWorseThan == null || failFastWorseThan.isEmpty() ? Result.FAILURE.toString() : Result.fromString(failFastWorseThan).toString();
+		this.maxConcurrentBuilds = maxConcurrentBuilds < 0 ? 0 : maxConcurrentBuilds;
+		this.mirrorDownstreamLogs = mirrorDownstreamLogs;
 	}
 
 	@Override
 	public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) throws InterruptedException, IOException {
 		EnvVars vars = build.getEnvironment(listener);
 
-		LinkedList<AbstractProject> buildsToTrigger = findBuildsToTrigger();
-		LinkedList<QueueTaskFuture<AbstractBuild>> scheduledBuilds = scheduleBuilds(build, listener, vars, buildsToTrigger);
-		Result result = waitForBuildsToStart(build, scheduledBuilds, listener);
-		result = waitForBuildsToFinish(scheduledBuilds, listener, result);
+		LinkedList<AbstractProject> buildsToTrigger;
+		try {
+			buildsToTrigger = findBuildsToTrigger(listener);
+		} catch (IllegalArgumentException e) {
+			listener.error(e.getMessage());
+			build.setResult(Result.FAILURE);
+			return false;
+		}
+		Result result = triggerAndWait(build, listener, vars, buildsToTrigger);
 
 		build.setResult(result);
 		return result.isBetterThan(Result.FAILURE);
 	}
 
-	private Result waitForBuildsToFinish(LinkedList<QueueTaskFuture<AbstractBuild>> scheduledBuilds, BuildListener listener, Result finalResult) throws IOException {
-		PrintStream logger = listener.getLogger();
+	/**
+	 * Schedules the builds, keeping at most {@link #maxConcurrentBuilds} of them in flight (if set),
+	 * and handles them in the order they start and finish, rather than the order they were scheduled.
+	 */
+	private Result triggerAndWait(AbstractBuild<?, ?> build, BuildListener listener, EnvVars vars, LinkedList<AbstractProject> projectsToTrigger) throws InterruptedException, IOException {
+		Result finalResult = Result.SUCCESS;
+		Result failFastThreshold = failFast ? Result.fromString(getFailFastWorseThan()) : null;
+		LinkedList<Rescheduler> buildsToTrigger = createReschedulers(build, listener, vars, projectsToTrigger);
+		int total = buildsToTrigger.size();
+		int finished = 0;
+		List<QueueTaskFuture<AbstractBuild>> pending = new LinkedList<QueueTaskFuture<AbstractBuild>>();
+		Set<QueueTaskFuture<AbstractBuild>> started = new HashSet<QueueTaskFuture<AbstractBuild>>();
+		List<AbstractBuild> running = new ArrayList<AbstractBuild>();
+		Map<AbstractBuild, LogMirror> mirrors = new HashMap<AbstractBuild, LogMirror>();
+		Map<QueueTaskFuture<AbstractBuild>, DownstreamTiming> timings = new HashMap<QueueTaskFuture<AbstractBuild>, DownstreamTiming>();
 
-		for (QueueTaskFuture<AbstractBuild> scheduledBuild : scheduledBuilds) {
-			try {
-				AbstractBuild finishedBuild = scheduledBuild.get();
-				Result result = finishedBuild.getResult();
-
-				logger.print("Build finished ");
-				listener.hyperlink(WaitForBuildStep.getRootUrl() + finishedBuild.getUrl(), finishedBuild.getFullDisplayName());
-				logger.print(" with result: " + result + ".");
-				logger.println(" completed in: " + finishedBuild.getDurationString() + ". ");
-
-				finalResult = finalResult.combine(result);
-			} catch (InterruptedException e) {
-				throw new RuntimeException(e);
-			} catch (ExecutionException e) {
-				listener.error("Error while waiting for build "+scheduledBuild.toString()+".");
-				listener.error(e.getMessage());
-				listener.error(ExceptionUtils.getFullStackTrace(e));
-				finalResult = finalResult.combine(Result.FAILURE);
+		while(!buildsToTrigger.isEmpty() || !pending.isEmpty()) {
+			int availableSlots = getAvailableSlots(pending, buildsToTrigger);
+			if(availableSlots > 0) {
+				List<QueueTaskFuture<AbstractBuild>> scheduledBuilds = scheduleBuilds(listener, buildsToTrigger, availableSlots, timings);
+				pending.addAll(scheduledBuilds);
+				if(!scheduledBuilds.isEmpty()) {
+					logCounters(listener, pending.size(), buildsToTrigger.size(), finished, total);
+				}
+			}
+
+			boolean finishedAny = false;
+			Iterator<QueueTaskFuture<AbstractBuild>> iterator = pending.iterator();
+			while(iterator.hasNext()) {
+				QueueTaskFuture<AbstractBuild> scheduledBuild = iterator.next();
+				if(!started.contains(scheduledBuild) && scheduledBuild.getStartCondition().isDone()) {
+					started.add(scheduledBuild);
+					AbstractBuild executingBuild = buildStarted(build, scheduledBuild, timings.get(scheduledBuild), listener);
+					if(executingBuild != null) {
+						running.add(executingBuild);
+						if(mirrorDownstreamLogs) {
+							mirrors.put(executingBuild, new LogMirror(executingBuild, listener.getLogger()));
+						}
+					}
+				}
+
+				if(scheduledBuild.isDone()) {
+					iterator.remove();
+					finishedAny = true;
+					finished++;
+					Result result = buildFinished(scheduledBuild, running, mirrors, listener);
+					DownstreamTiming timing = timings.remove(scheduledBuild);
+					if(!scheduledBuild.isCancelled()) {
+						finishTiming(build, scheduledBuild, timing);
+					}
+					finalResult = finalResult.combine(result);
+
+					if(failFast && result.isWorseOrEqualTo(failFastThreshold)) {
+						listener.error("A downstream build finished with " + result + ". Failing fast.");
+						if(!buildsToTrigger.isEmpty()) {
+							listener.getLogger().println("Not scheduling the remaining " + buildsToTrigger.size() + " downstream builds.");
+							buildsToTrigger.clear();
+						}
+						cancelBuilds(build, pending, listener);
+						for (LogMirror mirror : mirrors.values()) {
+							mirror.finish();
+						}
+						return finalResult;
+					}
+				}
+			}
+
+			for (LogMirror mirror : mirrors.values()) {
+				mirror.update();
+			}
+
+			if(finishedAny) {
+				logCounters(listener, pending.size(), buildsToTrigger.size(), finished, total);
+			} else {
+				long timeout;
+				if(running.size() < pending.size()) {
+					timeout = QUEUE_POLL_MILLIS;
+				} else if(getAvailableSlots(pending, buildsToTrigger) > 0) {
+					//Some projects couldn't be queued. Rest until they're ready to be tried again.
+					timeout = getMillisUntilReady(buildsToTrigger);
+				} else {
+					timeout = COMPLETION_POLL_MILLIS;
+				}
+				if(!mirrors.isEmpty()) {
+					timeout = Math.min(timeout, LogMirror.INTERVAL_MILLIS);
+				}
+
+				//A run that's no longer building would wake us straight away until its future is done, so don't wait on it.
+				List<AbstractBuild> stillBuilding = new ArrayList<AbstractBuild>(running.size());
+				for (AbstractBuild runningBuild : running) {
+					if(runningBuild.isBuilding()) {
+						stillBuilding.add(runningBuild);
+					}
+				}
+				if(stillBuilding.size() < running.size()) {
+					timeout = Math.min(timeout, FINISHING_POLL_MILLIS);
+				}
+				RunCompletionListener.awaitAnyCompletion(stillBuilding, timeout);
 			}
 		}
 
 		return finalResult;
 	}
 
-	private Result waitForBuildsToStart(AbstractBuild<?, ?> build, LinkedList<QueueTaskFuture<AbstractBuild>> scheduledBuilds, BuildListener listener) throws InterruptedException, IOException {
-		Result result = Result.SUCCESS;
+	private int getAvailableSlots(List<QueueTaskFuture<AbstractBuild>> pending, List<Rescheduler> buildsToTrigger) {
+		if(maxConcurrentBuilds <= 0) {
+			return buildsToTrigger.size();
+		}
+		return Math.min(maxConcurrentBuilds - pending.size(), buildsToTrigger.size());
+	}
+
+	private long getMillisUntilReady(List<Rescheduler> buildsToTrigger) {
+		long result = COMPLETION_POLL_MILLIS;
+		for (Rescheduler rescheduler : buildsToTrigger) {
+			if(rescheduler.isWaitingOnBlocker()) {
+				//Check back soon to see if the blocking item has left the queue.
+				result = Math.min(result, QUEUE_POLL_MILLIS);
+			} else {
+				result = Math.min(result, rescheduler.getMillisUntilReady());
+			}
+		}
+		return result;
+	}
+
+	private void logCounters(BuildListener listener, int inFlight, int waiting, int finished, int total) {
+		if(maxConcurrentBuilds > 0) {
+			listener.getLogger().println("Downstream builds: " + inFlight + " in flight (max " + maxConcurrentBuilds + "), " + waiting + " waiting to be scheduled, " + finished + " of " + total + " finished.");
+		}
+	}
+
+	private AbstractBuild buildStarted(AbstractBuild<?, ?> build, QueueTaskFuture<AbstractBuild> scheduledBuild, DownstreamTiming timing, BuildListener listener) throws InterruptedException, IOException {
 		PrintStream logger = listener.getLogger();
-		for (QueueTaskFuture<AbstractBuild> scheduledBuild : scheduledBuilds) {
-			try {
-				AbstractBuild executingBuild = scheduledBuild.waitForStart();
+		try {
+			AbstractBuild executingBuild = scheduledBuild.waitForStart();
+			if(timing != null) {
+				timing.started(executingBuild);
+			}
 
-				logger.print("Started build ");
-				listener.hyperlink(WaitForBuildStep.getRootUrl() + executingBuild.getUrl(), executingBuild.getFullDisplayName());
-				logger.println();
+			logger.print("Started build ");
+			listener.hyperlink(WaitForBuildStep.getRootUrl() + executingBuild.getUrl(), executingBuild.getFullDisplayName());
+			logger.println();
 
-				DownstreamBuildsAction action = build.getAction(DownstreamBuildsAction.class);
-				if(action == null) {
-					action = new DownstreamBuildsAction();
-					build.addAction(action);
-				}
-				action.addDownstreamBuild(executingBuild);
-			} catch (ExecutionException e) {
-				listener.error("Error while waiting for build.");
-				listener.error(e.getMessage());
-				listener.error(ExceptionUtils.getFullStackTrace(e));
-				result = result.combine(Result.FAILURE);
+			DownstreamBuildsAction.addDownstreamBuild(build, executingBuild);
+			return executingBuild;
+		} catch (ExecutionException e) {
+			listener.error("Error while waiting for build.");
+			listener.error(e.getMessage());
+			listener.error(ExceptionUtils.getFullStackTrace(e));
+		} catch (CancellationException e) {
+			//Reported once the build is done.
+		}
+		return null;
+	}
+
+	private Result buildFinished(QueueTaskFuture<AbstractBuild> scheduledBuild, List<AbstractBuild> running, Map<AbstractBuild, LogMirror> mirrors, BuildListener listener) throws InterruptedException, IOException {
+		PrintStream logger = listener.getLogger();
+		try {
+			AbstractBuild finishedBuild = scheduledBuild.get();
+			running.remove(finishedBuild);
+			LogMirror mirror = mirrors.remove(finishedBuild);
+			if(mirror != null) {
+				mirror.finish();
+			}
+			Result result = finishedBuild.getResult();
+
+			logger.print("Build finished ");
+			listener.hyperlink(WaitForBuildStep.getRootUrl() + finishedBuild.getUrl(), finishedBuild.getFullDisplayName());
+			logger.print(" with result: " + result + ".");
+			logger.println(" completed in: " + finishedBuild.getDurationString() + ". ");
+
+			return result;
+		} catch (ExecutionException e) {
+			listener.error("Error while waiting for build "+scheduledBuild.toString()+".");
+			listener.error(e.getMessage());
+			listener.error(ExceptionUtils.getFullStackTrace(e));
+			return Result.FAILURE;
+		} catch (CancellationException e) {
+			listener.error("Build " + scheduledBuild.toString() + " was canceled before it finished.");
+			return Result.ABORTED;
+		}
+	}
+
+	private void finishTiming(AbstractBuild<?, ?> build, QueueTaskFuture<AbstractBuild> scheduledBuild, DownstreamTiming timing) throws InterruptedException {
+		if(timing == null) {
+			return;
+		}
+		try {
+			timing.completed(scheduledBuild.get());
+			DownstreamTimingsAction.addTiming(build, timing);
+			TriggerMetrics.get().completed(timing);
+		} catch (ExecutionException ignore) {
+			//Already reported by buildFinished.
+		}
+	}
+
+	/**
+	 * Removes the builds that haven't started from the queue and aborts the ones that are running.
+	 * Builds that something else also caused (another upstream, a user) are left alone.
+	 */
+	private void cancelBuilds(Run upstream, List<QueueTaskFuture<AbstractBuild>> scheduledBuilds, BuildListener listener) {
+		int canceled = 0;
+		for (QueueTaskFuture<AbstractBuild> scheduledBuild : scheduledBuilds) {
+			if(!scheduledBuild.isDone() && !Rescheduler.isShared(scheduledBuild, upstream) && scheduledBuild.cancel(true)) {
+				canceled++;
 			}
 		}
+		listener.getLogger().println("Canceled " + canceled + " of the remaining " + scheduledBuilds.size() + " downstream builds.");
+	}
+
+	private LinkedList<Rescheduler> createReschedulers(Run build, BuildListener listener, EnvVars vars, List<AbstractProject> projectsToTrigger) {
+		LinkedList<Rescheduler> result = new LinkedList<Rescheduler>();
+		ParameterTemplate template = ParameterTemplate.compile(vars.expand(this.parameters), parameterTemplate);
+		parameterTemplate = template;
+		for (AbstractProject projectToSchedule : projectsToTrigger) {
+			Action parameterActions = template.createParametersAction(projectToSchedule, listener, false);
+			result.add(new Rescheduler(projectToSchedule, new Cause.UpstreamCause(build), parameterActions));
+		}
 		return result;
 	}
 
-	private LinkedList<QueueTaskFuture<AbstractBuild>> scheduleBuilds(Run build, BuildListener listener, EnvVars vars, LinkedList<AbstractProject> buildsToTrigger) throws InterruptedException, IOException {
+	/**
+	 * Makes one pass over the projects waiting to be scheduled, scheduling at most the given number of them.
+	 * Projects that can't be queued right now are left in the list to be tried again once they're ready.
+	 */
+	private List<QueueTaskFuture<AbstractBuild>> scheduleBuilds(BuildListener listener, LinkedList<Rescheduler> buildsToTrigger, int limit, Map<QueueTaskFuture<AbstractBuild>, DownstreamTiming> timings) throws IOException {
 		PrintStream logger = listener.getLogger();
-		LinkedList<QueueTaskFuture<AbstractBuild>> scheduledBuilds = new LinkedList<QueueTaskFuture<AbstractBuild>>();
-		int iterations = 0;
-		while(!buildsToTrigger.isEmpty()) {
-			AbstractProject projectToSchedule = buildsToTrigger.removeFirst();
-			String expandedParameters = vars.expand(this.parameters);
-			Action parameterActions = TriggerJobBuildStep.getParameterActions(projectToSchedule, expandedParameters, listener, false);
-			QueueTaskFuture<AbstractBuild> queueTaskFuture = projectToSchedule.scheduleBuild2(0, new Cause.UpstreamCause(build), parameterActions);
+		List<QueueTaskFuture<AbstractBuild>> scheduledBuilds = new ArrayList<QueueTaskFuture<AbstractBuild>>();
+		int attempts = buildsToTrigger.size();
+		for(int i = 0; i < attempts && scheduledBuilds.size() < limit; i++) {
+			Rescheduler rescheduler = buildsToTrigger.removeFirst();
+			QueueTaskFuture<AbstractBuild> queueTaskFuture = rescheduler.isReady() ? rescheduler.tryToSchedule() : null;
 			if(queueTaskFuture != null) {
 				scheduledBuilds.add(queueTaskFuture);
-				logger.print("Queued project ");
+				AbstractProject projectToSchedule = rescheduler.getProject();
+				DownstreamTiming timing = new DownstreamTiming(projectToSchedule.getFullName());
+				timing.scheduled();
+				timings.put(queueTaskFuture, timing);
+				TriggerMetrics.get().scheduled(timing);
+				logger.print(rescheduler.isCoalesced() ? "Attached to an identical queued build of project " : "Queued project ");
 				listener.hyperlink(WaitForBuildStep.getRootUrl() + projectToSchedule.getUrl(), projectToSchedule.getFullDisplayName());
 				logger.println();
 			} else {
 				//Add it back in, it wasn't scheduled.
-				buildsToTrigger.add(projectToSchedule);
-			}
-
-			iterations++;
-			if(iterations >= buildsToTrigger.size()) {
-				//Take a rest before retrying.
-				iterations = 0;
-				Thread.sleep(5000);
+				buildsToTrigger.add(rescheduler);
 			}
 		}
 		return scheduledBuilds;
 	}
 
 	public LinkedList<AbstractProject> findBuildsToTrigger() {
-		LinkedList<AbstractProject> projects = new LinkedList<AbstractProject>();
+		return findBuildsToTrigger(TaskListener.NULL);
+	}
+
+	/**
+	 * Each line is a job name or a pattern understood by {@link JobIndex}. A job matched by more than one line is only triggered once.
+	 * Lines that don't match any projects are logged and skipped.
+	 * @throws IllegalArgumentException If a line is an invalid regular expression.
+	 */
+	public LinkedList<AbstractProject> findBuildsToTrigger(TaskListener listener) {
+		Set<AbstractProject> projects = new LinkedHashSet<AbstractProject>();
 		Scanner scanner = new Scanner(getJobNames());
 		while(scanner.hasNextLine()) {
-			String name = scanner.nextLine();
-			TopLevelItem item = Jenkins.getInstance().getItem(name);
-			if(item instanceof AbstractProject) {
-				projects.add((AbstractProject) item);
+			String line = scanner.nextLine();
+			if(line.trim().isEmpty()) {
+				continue;
 			}
+			List<AbstractProject> matches = JobIndex.resolve(line);
+			if(matches.isEmpty()) {
+				listener.getLogger().println("'" + line.trim() + "' doesn't match any projects. Skipping it.");
+			}
+			projects.addAll(matches);
 		}
-		return projects;
+		return new LinkedList<AbstractProject>(projects);
 	}
 
 	@Exported
@@ -151,6 +357,27 @@ public class TriggerAndWaitBuildStep extends Builder {
 		return parameters;
 	}
 
+	@Exported
+	public boolean getFailFast() {
+		return failFast;
+	}
+
+	@Exported
+	public String getFailFastWorseThan() {
+		//Steps saved before the threshold was configurable don't have one.
+		return failFastWorseThan == null ? Result.FAILURE.toString() : failFastWorseThan;
+	}
+
+	@Exported
+	public int getMaxConcurrentBuilds() {
+		return maxConcurrentBuilds;
+	}
+
+	@Exported
+	public boolean getMirrorDownstreamLogs() {
+		return mirrorDownstreamLogs;
+	}
+
 	@Extension
 	public static final class DescriptorImpl extends com.attask.jenkins.BuildStepDescriptor {
 		public boolean isApplicable(Class<? extends AbstractProject> aClass) {
@@ -0,0 +1,353 @@
+package com.attask.jenkins;
+
+import hudson.AbortException;
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.console.ModelHyperlinkNote;
+import hudson.matrix.*;
+import hudson.matrix.listeners.MatrixBuildListener;
+import hudson.model.*;
+import hudson.model.queue.QueueTaskFuture;
+import jenkins.model.Jenkins;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Runs the matrix like the default execution strategy, but first triggers a job and waits for it,
+ * injecting the properties it leaves in its workspace into every configuration, and triggers another job once the matrix is done.
+ *
+ * Touchstone configurations are run first. If they don't reach the required result, the rest of the configurations
+ * are never scheduled and the post job is triggered right away.
+ */
+public class TriggerBuildPreMatrix extends MatrixExecutionStrategy {
+	private static final int MAX_SCHEDULE_ATTEMPTS = 5;
+	private static final long QUEUE_POLL_MILLIS = 1000;
+	//Polls a configuration has to be missing from both the queue and its builds before it's considered canceled.
+	private static final int APPEARS_CANCELED_CHECKS = 5;
+
+	private final String jobName;
+	private final String parameters;
+	private final String resultsFileToInject;
+	private final String postJobName;
+	private final String postParameters;
+	private final boolean runSequentially;
+	private final MatrixConfigurationSorter sorter;
+	private final String touchStoneCombinationFilter;
+	private final Result touchStoneResultCondition;
+
+	@DataBoundConstructor
+	public TriggerBuildPreMatrix(String jobName, String parameters, String resultsFileToInject, String postJobName, String postParameters,
+								 Boolean runSequentially, MatrixConfigurationSorter sorter,
+								 boolean hasTouchStoneCombinationFilter, String touchStoneCombinationFilter, Result touchStoneResultCondition) {
+		this.jobName = jobName;
+		this.parameters = parameters;
+		this.resultsFileToInject = resultsFileToInject;
+		this.postJobName = postJobName;
+		this.postParameters = postParameters;
+		this.runSequentially = runSequentially != null && runSequentially;
+		this.sorter = sorter;
+		this.touchStoneCombinationFilter = hasTouchStoneCombinationFilter ? touchStoneCombinationFilter : null;
+		this.touchStoneResultCondition = hasTouchStoneCombinationFilter ? touchStoneResultCondition : null;
+	}
+
+	@Override
+	public Result run(MatrixBuild.MatrixBuildExecution execution) throws InterruptedException, IOException {
+		MatrixBuild build = (MatrixBuild) execution.getBuild();
+		BuildListener listener = execution.getListener();
+
+		Result result = runPreJob(build, listener);
+		if(result.isBetterThan(Result.FAILURE)) {
+			result = result.combine(runConfigurations(execution));
+		}
+
+		if(postJobName != null && !postJobName.trim().isEmpty()) {
+			Run postBuild = triggerAndWait(build, listener, postJobName, postParameters);
+			result = result.combine(getResult(postBuild));
+		}
+		return result;
+	}
+
+	/**
+	 * @return The pre job's result, or SUCCESS if there isn't one.
+	 */
+	private Result runPreJob(MatrixBuild build, BuildListener listener) throws InterruptedException, IOException {
+		if(jobName == null || jobName.trim().isEmpty()) {
+			return Result.SUCCESS;
+		}
+
+		Run preBuild = triggerAndWait(build, listener, jobName, parameters);
+		Result result = getResult(preBuild);
+		if(result.isWorseOrEqualTo(Result.FAILURE)) {
+			listener.error("The pre job finished with " + result + ". Not running any configurations.");
+			return result;
+		}
+
+		if(resultsFileToInject != null && !resultsFileToInject.trim().isEmpty() && preBuild instanceof AbstractBuild) {
+			String fileName = build.getEnvironment(listener).expand(resultsFileToInject);
+			PropertiesFileReader reader = new PropertiesFileReader(fileName, PropertiesFileReader.DEFAULT_MAX_BYTES);
+			Map<String, String> inject;
+			if(isArchived(preBuild, fileName)) {
+				//The pre job's next build may already be reusing its workspace, so prefer what it archived.
+				inject = reader.invoke(preBuild.getArtifactsDir(), null);
+			} else {
+				FilePath workspace = ((AbstractBuild) preBuild).getWorkspace();
+				if(workspace == null || !isOnline(workspace)) {
+					listener.error("Can't read " + fileName + " from the workspace of " + preBuild.getFullDisplayName() + ". The workspace is gone or its node is offline, and it wasn't archived.");
+					return Result.FAILURE;
+				}
+				inject = workspace.act(reader);
+			}
+			listener.getLogger().println("Injecting " + inject.size() + " properties from " + fileName + " into every configuration.");
+			injectProperties(build, inject);
+		}
+		return result;
+	}
+
+	private static boolean isArchived(Run run, String fileNames) {
+		for (String fileName : fileNames.split(",")) {
+			if(!fileName.trim().isEmpty() && !new File(run.getArtifactsDir(), fileName.trim()).isFile()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isOnline(FilePath workspace) {
+		try {
+			return workspace.exists();
+		} catch (IOException e) {
+			return false;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	private void injectProperties(MatrixBuild build, Map<String, String> inject) {
+		build.addAction(new EnvMapAction(inject));
+
+		//The matrix build's parameters are what's passed to each configuration.
+		List<ParameterValue> newParameters = new ArrayList<ParameterValue>();
+		ParametersAction action = build.getAction(ParametersAction.class);
+		if(action != null) {
+			List<ParameterValue> originalParameters = action.getParameters();
+			if(originalParameters != null) {
+				newParameters.addAll(originalParameters);
+			}
+			build.getActions().remove(action);
+		}
+		for (Map.Entry<String, String> entry : inject.entrySet()) {
+			newParameters.add(new StringParameterValue(entry.getKey(), entry.getValue(), "Injected by " + this.getClass().getSimpleName()));
+		}
+		build.addAction(new ParametersAction(newParameters));
+	}
+
+	private Result runConfigurations(MatrixBuild.MatrixBuildExecution execution) throws InterruptedException, IOException {
+		PrintStream logger = execution.getListener().getLogger();
+		Collection<MatrixConfiguration> touchStoneConfigurations = new HashSet<MatrixConfiguration>();
+		Collection<MatrixConfiguration> delayedConfigurations = new HashSet<MatrixConfiguration>();
+		filterConfigurations(execution, touchStoneConfigurations, delayedConfigurations);
+
+		for (MatrixAggregator aggregator : execution.getAggregators()) {
+			if(!aggregator.startBuild()) {
+				return Result.FAILURE;
+			}
+		}
+
+		if(sorter != null) {
+			touchStoneConfigurations = sort(touchStoneConfigurations);
+			delayedConfigurations = sort(delayedConfigurations);
+		}
+
+		Result result = runAll(execution, touchStoneConfigurations);
+		if(touchStoneResultCondition != null && result.isWorseThan(touchStoneResultCondition)) {
+			logger.println("Touchstone configurations resulted in " + result + ". Not scheduling the other " + delayedConfigurations.size() + " configurations.");
+			return result;
+		}
+		return result.combine(runAll(execution, delayedConfigurations));
+	}
+
+	private void filterConfigurations(MatrixBuild.MatrixBuildExecution execution, Collection<MatrixConfiguration> touchStoneConfigurations, Collection<MatrixConfiguration> delayedConfigurations) {
+		MatrixBuild build = (MatrixBuild) execution.getBuild();
+		MatrixProject project = (MatrixProject) execution.getProject();
+		for (MatrixConfiguration configuration : execution.getActiveConfigurations()) {
+			if(!MatrixBuildListener.buildConfiguration(build, configuration)) {
+				continue;
+			}
+			if(touchStoneCombinationFilter != null && configuration.getCombination().evalGroovyExpression(project.getAxes(), touchStoneCombinationFilter)) {
+				touchStoneConfigurations.add(configuration);
+			} else {
+				delayedConfigurations.add(configuration);
+			}
+		}
+	}
+
+	private Collection<MatrixConfiguration> sort(Collection<MatrixConfiguration> configurations) {
+		TreeSet<MatrixConfiguration> result = new TreeSet<MatrixConfiguration>(sorter);
+		result.addAll(configurations);
+		return result;
+	}
+
+	private Result runAll(MatrixBuild.MatrixBuildExecution execution, Collection<MatrixConfiguration> configurations) throws InterruptedException, IOException {
+		if(!runSequentially) {
+			for (MatrixConfiguration configuration : configurations) {
+				scheduleConfigurationBuild(execution, configuration);
+			}
+		}
+
+		Result result = Result.SUCCESS;
+		for (MatrixConfiguration configuration : configurations) {
+			if(runSequentially) {
+				scheduleConfigurationBuild(execution, configuration);
+			}
+			MatrixRun run = waitForCompletion(execution, configuration);
+			if(run != null) {
+				for (MatrixAggregator aggregator : execution.getAggregators()) {
+					if(!aggregator.endRun(run)) {
+						throw new AbortException();
+					}
+				}
+			}
+			result = result.combine(getResult(run));
+		}
+		return result;
+	}
+
+	private void scheduleConfigurationBuild(MatrixBuild.MatrixBuildExecution execution, MatrixConfiguration configuration) {
+		MatrixBuild build = (MatrixBuild) execution.getBuild();
+		execution.getListener().getLogger().println("Triggering " + ModelHyperlinkNote.encodeTo(configuration));
+		configuration.scheduleBuild(build.getAction(ParametersAction.class), new Cause.UpstreamCause((Run) build));
+	}
+
+	private MatrixRun waitForCompletion(MatrixBuild.MatrixBuildExecution execution, MatrixConfiguration configuration) throws InterruptedException {
+		PrintStream logger = execution.getListener().getLogger();
+		int number = execution.getBuild().getNumber();
+		int appearsCanceled = 0;
+		while(true) {
+			MatrixRun run = configuration.getBuildByNumber(number);
+			if(run != null) {
+				//Once it's running, the completion listener wakes us up when it's done.
+				RunCompletionListener.awaitCompletion(run, Long.MAX_VALUE);
+				logger.println("Completed " + ModelHyperlinkNote.encodeTo(configuration) + " " + run.getResult());
+				return run;
+			}
+
+			if(configuration.getQueueItem() == null) {
+				appearsCanceled++;
+				if(appearsCanceled >= APPEARS_CANCELED_CHECKS) {
+					logger.println(ModelHyperlinkNote.encodeTo(configuration) + " appears to have been canceled.");
+					return null;
+				}
+			} else {
+				appearsCanceled = 0;
+			}
+			Thread.sleep(QUEUE_POLL_MILLIS);
+		}
+	}
+
+	private static Result getResult(Run run) {
+		if(run == null || run.getResult() == null) {
+			return Result.ABORTED;
+		}
+		return run.getResult();
+	}
+
+	/**
+	 * @return The finished build, or null if it couldn't be scheduled or was canceled.
+	 */
+	private Run triggerAndWait(MatrixBuild build, BuildListener listener, String jobName, String parameters) throws InterruptedException, IOException {
+		PrintStream logger = listener.getLogger();
+		EnvVars vars = build.getEnvironment(listener);
+		String expandedJobName = vars.expand(jobName);
+		AbstractProject project = Jenkins.getInstance().getItemByFullName(expandedJobName, AbstractProject.class);
+		if(project == null) {
+			listener.error(expandedJobName + " is not a Project");
+			return null;
+		}
+
+		Action parameterActions = new ParameterTemplate(vars.expand(parameters)).createParametersAction(project, listener, true);
+		Rescheduler rescheduler = new Rescheduler(project, new Cause.UpstreamCause((Run) build), parameterActions);
+		QueueTaskFuture<AbstractBuild> future = rescheduler.scheduleWithRetries(listener, MAX_SCHEDULE_ATTEMPTS);
+		if(future == null) {
+			return null;
+		}
+
+		try {
+			AbstractBuild started = future.waitForStart();
+			logger.print("Waiting for ");
+			listener.hyperlink(WaitForBuildStep.getRootUrl() + started.getUrl(), started.getFullDisplayName());
+			logger.println();
+			DownstreamBuildsAction.addDownstreamBuild(build, started);
+
+			AbstractBuild finished = future.get();
+			logger.println(finished.getFullDisplayName() + " finished with result: " + finished.getResult());
+			return finished;
+		} catch (InterruptedException e) {
+			//The matrix build was aborted, so the build it triggered shouldn't keep running, unless another upstream is sharing it.
+			if(!future.isDone() && !Rescheduler.isShared(future, build) && future.cancel(true)) {
+				listener.getLogger().println("Canceled " + expandedJobName + ".");
+			}
+			throw e;
+		} catch (ExecutionException e) {
+			listener.error("Error while waiting for " + expandedJobName + ": " + e.getMessage());
+		} catch (CancellationException e) {
+			listener.error(expandedJobName + " was canceled before it finished.");
+		}
+		return null;
+	}
+
+	public String getJobName() {
+		return jobName;
+	}
+
+	public String getParameters() {
+		return parameters;
+	}
+
+	public String getResultsFileToInject() {
+		return resultsFileToInject;
+	}
+
+	public String getPostJobName() {
+		return postJobName;
+	}
+
+	public String getPostParameters() {
+		return postParameters;
+	}
+
+	public boolean isRunSequentially() {
+		return runSequentially;
+	}
+
+	public MatrixConfigurationSorter getSorter() {
+		return sorter;
+	}
+
+	public boolean isHasTouchStoneCombinationFilter() {
+		return touchStoneCombinationFilter != null;
+	}
+
+	public String getTouchStoneCombinationFilter() {
+		return touchStoneCombinationFilter;
+	}
+
+	public Result getTouchStoneResultCondition() {
+		return touchStoneResultCondition;
+	}
+
+	@Extension
+	public static class DescriptorImpl extends MatrixExecutionStrategyDescriptor {
+		@Override
+		public String getDisplayName() {
+			return "Trigger a job before and after the matrix";
+		}
+	}
+}
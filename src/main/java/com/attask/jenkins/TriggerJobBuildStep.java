@@ -11,8 +11,7 @@ import org.kohsuke.stapler.export.Exported;
 import org.kohsuke.stapler.export.ExportedBean;
 
 import java.io.IOException;
-import java.io.PrintStream;
-import java.util.*;
+import java.util.List;
 import java.util.concurrent.ExecutionException;
 
 /**
@@ -22,19 +21,28 @@ import java.util.concurrent.ExecutionException;
  */
 @ExportedBean
 public class TriggerJobBuildStep extends Builder {
+	private static final int MAX_SCHEDULE_ATTEMPTS = 5;
+
 	private final String jobName;
 	private final String envVarName;
 	private final String parameters;
 	private final int waitLimitMinutes;
 	private final String runOnCondition;
+	private final boolean exportQueueId;
+	private transient volatile ParameterTemplate parameterTemplate;
 
+	/**
+	 * @param exportQueueId If true, doesn't wait for the build to leave the queue. The environment variable is set to
+	 *                      "queue:&lt;id&gt;" instead of a build number, which {@link WaitForBuildStep} can wait on.
+	 */
 	@DataBoundConstructor
-	public TriggerJobBuildStep(String jobName, String envVarName, String parameters, int waitLimitMinutes, String runOnCondition) {
+	public TriggerJobBuildStep(String jobName, String envVarName, String parameters, int waitLimitMinutes, String runOnCondition, boolean exportQueueId) {
 		this.jobName = jobName;
 		this.envVarName = envVarName;
 		this.parameters = parameters;
 		this.waitLimitMinutes = waitLimitMinutes <= 0 ? 15 : waitLimitMinutes;
 		this.runOnCondition = runOnCondition;
+		this.exportQueueId = exportQueueId;
 	}
 
 	@Exported
@@ -57,6 +65,11 @@ public class TriggerJobBuildStep extends Builder {
 		return waitLimitMinutes;
 	}
 
+	@Exported
+	public boolean getExportQueueId() {
+		return exportQueueId;
+	}
+
 	@Exported
 	public String getRunOnCondition() {
 		return runOnCondition;
@@ -77,15 +90,21 @@ public class TriggerJobBuildStep extends Builder {
         EnvVars envVars = build.getEnvironment(listener);
 		final String variableName = envVars.expand(this.envVarName);
 		String jobName = envVars.expand(this.jobName);
-		TopLevelItem topLevelItem = Hudson.getInstance().getItem(jobName);
-		if(topLevelItem == null || !(topLevelItem instanceof AbstractProject)) {
-			listener.getLogger().println(jobName + " is not a Project {" + topLevelItem + "}");
+		List<AbstractProject> projects;
+		try {
+			projects = JobIndex.resolve(jobName);
+		} catch (IllegalArgumentException e) {
+			listener.error(e.getMessage());
+			return false;
+		}
+		if(projects.size() != 1) {
+			listener.getLogger().println(jobName + " must match exactly one Project, but matched " + projects);
 			return false;
 		}
 
-		final AbstractProject job = (AbstractProject)topLevelItem;
+		final AbstractProject job = projects.get(0);
 		boolean triggerOnly = checkTriggerOnly();
-		final Run nextBuild = triggerBuild(build, listener, job, build.getEnvironment(listener), triggerOnly);
+		final Run nextBuild = triggerBuild(build, listener, job, build.getEnvironment(listener), triggerOnly, variableName);
 		if(nextBuild == null) {
 			if(triggerOnly) {
 				listener.error("Couldn't start the build.");
@@ -95,12 +114,7 @@ public class TriggerJobBuildStep extends Builder {
 			}
 		}
 
-		DownstreamBuildsAction action = build.getAction(DownstreamBuildsAction.class);
-		if(action == null) {
-			action = new DownstreamBuildsAction();
-			build.addAction(action);
-		}
-		action.addDownstreamBuild(nextBuild);
+		DownstreamBuildsAction.addDownstreamBuild(build, nextBuild);
 
 		if(variableName != null && !variableName.isEmpty()) {
 			listener.getLogger().println("setting environment variable '" + variableName + "' to '" + nextBuild.getNumber() + "'");
@@ -136,41 +150,46 @@ public class TriggerJobBuildStep extends Builder {
         return result ^ inverse;
     }
 
-	private Run triggerBuild(Run upstreamRun, BuildListener listener, final AbstractProject jobToStart, EnvVars vars, boolean triggerOnly) throws IOException {
-		Action parameterActions = getParameterActions(jobToStart, vars.expand(parameters), listener);
-		QueueTaskFuture<Build> queueTaskFuture = null;
-
-		int retries = 0;
-		while(retries < 5) {
-			++retries;
-			queueTaskFuture = jobToStart.scheduleBuild2(0, new Cause.UpstreamCause(upstreamRun), Arrays.asList(parameterActions));
-			if(queueTaskFuture == null) {
-				try {
-					listener.error("Unable to queue job. Trying again in 5 seconds. (try: " + retries + "/5)");
-					Thread.sleep(5000);
-				} catch (InterruptedException e) {
-					throw new IOException(e);
-				}
-			} else {
-				break;
-			}
+	private Run triggerBuild(Run upstreamRun, BuildListener listener, final AbstractProject jobToStart, EnvVars vars, boolean triggerOnly, String variableName) throws IOException {
+		Action parameterActions = getParameterTemplate(vars.expand(parameters)).createParametersAction(jobToStart, listener, true);
+		Rescheduler rescheduler = new Rescheduler(jobToStart, new Cause.UpstreamCause(upstreamRun), parameterActions);
+		QueueTaskFuture<AbstractBuild> queueTaskFuture;
+		try {
+			queueTaskFuture = rescheduler.scheduleWithRetries(listener, MAX_SCHEDULE_ATTEMPTS);
+		} catch (InterruptedException e) {
+			throw new IOException(e);
 		}
 		if(queueTaskFuture == null) {
-			listener.error("Didn't start job! Apparently the same job is queued.");
 			return null;
 		}
+		DownstreamTiming timing = new DownstreamTiming(jobToStart.getFullName());
+		timing.scheduled();
+		TriggerMetrics.get().scheduled(timing);
 
 		if(triggerOnly) {
 			listener.getLogger().println("Only triggering the build. Not waiting to get a build number.");
 			return null;
 		}
 
-		listener.getLogger().print("Queued job ");
+		listener.getLogger().print(rescheduler.isCoalesced() ? "Attached to an identical queued build of job " : "Queued job ");
 		listener.hyperlink(WaitForBuildStep.getRootUrl() + jobToStart.getUrl(), jobToStart.getFullDisplayName());
 		listener.getLogger().println();
 
+		if(exportQueueId) {
+			//If it has already left the queue, there's no reason not to get its build number.
+			String queueReference = QueuedBuildRegistry.register(queueTaskFuture, upstreamRun);
+			if(queueReference != null) {
+				DownstreamTimingsAction.addTiming(upstreamRun, timing);
+				listener.getLogger().println("Not waiting for the build to start. Setting environment variable '" + variableName + "' to '" + queueReference + "'");
+				upstreamRun.addAction(new EnvAction(variableName, queueReference));
+				return null;
+			}
+		}
+
 		try {
-			Build build = queueTaskFuture.waitForStart();
+			AbstractBuild build = queueTaskFuture.waitForStart();
+			timing.started(build);
+			DownstreamTimingsAction.addTiming(upstreamRun, timing);
 			listener.getLogger().print("Run started: ");
 			listener.hyperlink(WaitForBuildStep.getRootUrl() + build.getUrl(), build.getFullDisplayName());
 			listener.getLogger().println();
@@ -187,48 +206,16 @@ public class TriggerJobBuildStep extends Builder {
 	}
 
 	public static Action getParameterActions(AbstractProject project, String parameters, BuildListener listener, boolean echoParameters) {
-		PrintStream logger = listener.getLogger();
-		List<ParameterValue> result = new ArrayList<ParameterValue>();
-		Map<String, String> propertiesMap = getPropertiesMap(parameters);
-
-		@SuppressWarnings("unchecked")
-		ParametersDefinitionProperty projectProperties = (ParametersDefinitionProperty)project.getProperty(ParametersDefinitionProperty.class);
-		if(projectProperties != null) {
-			List<ParameterDefinition> parameterDefinitions = projectProperties.getParameterDefinitions();
-			if(parameterDefinitions != null) {
-				for (ParameterDefinition parameterDefinition : parameterDefinitions) {
-					String propertyName = parameterDefinition.getName();
-					if(propertiesMap.containsKey(propertyName)) {
-						String value = propertiesMap.get(propertyName);
-						if(echoParameters) {
-							logger.println("using variable: '" + propertyName + "' -> '" + value + "'");
-						}
-						result.add(new StringParameterValue(propertyName, value));
-					} else {
-						ParameterValue defaultParameterValue = parameterDefinition.getDefaultParameterValue();
-						if(echoParameters) {
-							logger.println("using default for: '" + defaultParameterValue.getName() + "' -> '" + defaultParameterValue.toString() + "'");
-						}
-						result.add(defaultParameterValue);
-					}
-				}
-			}
-		}
-
-		return new ParametersAction(result);
+		return new ParameterTemplate(parameters).createParametersAction(project, listener, echoParameters);
 	}
 
-	private static Map<String, String> getPropertiesMap(String parameters) {
-		String[] split = parameters.split("\n");
-		Map<String, String> properties = new HashMap<String, String>();
-		for(int i = 0; i < split.length; i++) {
-			String lineWithoutComments = split[i].split("#", 2)[0];
-			String[] property = lineWithoutComments.split("=", 2);
-			if(property.length == 2) {
-				properties.put(property[0].trim(), property[1].trim());
-			}
-		}
-		return properties;
+	/**
+	 * @return The parsed parameters for the given (expanded) text. Reuses the last parsed template if the text hasn't changed.
+	 */
+	private ParameterTemplate getParameterTemplate(String expandedParameters) {
+		ParameterTemplate template = ParameterTemplate.compile(expandedParameters, parameterTemplate);
+		parameterTemplate = template;
+		return template;
 	}
 
 	@Extension
@@ -0,0 +1,107 @@
+package com.attask.jenkins;
+
+import hudson.Extension;
+import hudson.model.Api;
+import hudson.model.RootAction;
+import jenkins.model.Jenkins;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and histograms aggregated across every trigger and wait step since Jenkins started.
+ * Available at /jobBuildStepsMetrics/api/json (or xml).
+ */
+@Extension
+@ExportedBean
+public class TriggerMetrics implements RootAction {
+	private final AtomicLong scheduledBuilds = new AtomicLong();
+	private final AtomicLong completedBuilds = new AtomicLong();
+	private final AtomicLong retryLookups = new AtomicLong();
+	private final AtomicLong artifactBytes = new AtomicLong();
+	private final Histogram queueMillis = new Histogram();
+	private final Histogram buildMillis = new Histogram();
+	private final Histogram retryLookupMillis = new Histogram();
+	private final Histogram artifactCopyMillis = new Histogram();
+
+	public static TriggerMetrics get() {
+		return Jenkins.getInstance().getExtensionList(RootAction.class).get(TriggerMetrics.class);
+	}
+
+	public void scheduled(DownstreamTiming timing) {
+		scheduledBuilds.incrementAndGet();
+	}
+
+	public void completed(DownstreamTiming timing) {
+		completedBuilds.incrementAndGet();
+		queueMillis.record(timing.getQueueMillis());
+		buildMillis.record(timing.getBuildMillis());
+	}
+
+	public void retryLookedUp(long millis) {
+		retryLookups.incrementAndGet();
+		retryLookupMillis.record(millis);
+	}
+
+	public void artifactsCopied(long bytes, long millis) {
+		artifactBytes.addAndGet(bytes);
+		artifactCopyMillis.record(millis);
+	}
+
+	public Api getApi() {
+		return new Api(this);
+	}
+
+	@Exported
+	public long getScheduledBuilds() {
+		return scheduledBuilds.get();
+	}
+
+	@Exported
+	public long getCompletedBuilds() {
+		return completedBuilds.get();
+	}
+
+	@Exported
+	public long getRetryLookups() {
+		return retryLookups.get();
+	}
+
+	@Exported
+	public long getArtifactBytes() {
+		return artifactBytes.get();
+	}
+
+	@Exported
+	public Histogram getQueueMillis() {
+		return queueMillis;
+	}
+
+	@Exported
+	public Histogram getBuildMillis() {
+		return buildMillis;
+	}
+
+	@Exported
+	public Histogram getRetryLookupMillis() {
+		return retryLookupMillis;
+	}
+
+	@Exported
+	public Histogram getArtifactCopyMillis() {
+		return artifactCopyMillis;
+	}
+
+	public String getIconFileName() {
+		return null;
+	}
+
+	public String getDisplayName() {
+		return "Job Build Steps Metrics";
+	}
+
+	public String getUrlName() {
+		return "jobBuildStepsMetrics";
+	}
+}
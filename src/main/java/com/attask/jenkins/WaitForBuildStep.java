@@ -4,16 +4,21 @@ import hudson.EnvVars;
 import hudson.Extension;
 import hudson.FilePath;
 import hudson.Launcher;
+import hudson.Util;
 import hudson.matrix.MatrixBuild;
 import hudson.model.*;
 import hudson.tasks.Builder;
 import hudson.util.FormValidation;
-import org.apache.tools.ant.DirectoryScanner;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.QueryParameter;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeoutException;
 
 /**
  * User: joeljohnson
@@ -33,6 +38,10 @@ public class WaitForBuildStep extends Builder {
     public final String runOnCondition;
 	public final int numberRetries;
 	public final String propertiesFileToInject;
+	public final boolean bulkCopyArtifacts;
+	public final boolean incrementalCopyArtifacts;
+	public final boolean mirrorDownstreamLog;
+	public final boolean injectPropertiesFromArtifacts;
 
     @DataBoundConstructor
     public WaitForBuildStep(
@@ -47,7 +56,11 @@ public class WaitForBuildStep extends Builder {
 			String statusVariableName,
 			String runOnCondition,
 			int numberRetries,
-			String propertiesFileToInject
+			String propertiesFileToInject,
+			boolean bulkCopyArtifacts,
+			boolean incrementalCopyArtifacts,
+			boolean mirrorDownstreamLog,
+			boolean injectPropertiesFromArtifacts
 	) throws FormValidation {
         this.jobName = jobName;
 		this.buildNumber = buildNumber;
@@ -61,6 +74,10 @@ public class WaitForBuildStep extends Builder {
 		this.statusVariableName = statusVariableName;
 		this.numberRetries = numberRetries <= 0 ? 3600 : numberRetries;
 		this.propertiesFileToInject = propertiesFileToInject;
+		this.bulkCopyArtifacts = bulkCopyArtifacts;
+		this.incrementalCopyArtifacts = incrementalCopyArtifacts;
+		this.mirrorDownstreamLog = mirrorDownstreamLog;
+		this.injectPropertiesFromArtifacts = injectPropertiesFromArtifacts;
 	}
 
 	@Override
@@ -74,173 +91,380 @@ public class WaitForBuildStep extends Builder {
         }
 
 		EnvVars envVars = build.getEnvironment(listener);
-		Hudson jenkins = Hudson.getInstance();
-
-		String jobName = envVars.expand(this.jobName);
-		TopLevelItem topLevelItem = jenkins.getItem(jobName);
-
-		if(topLevelItem == null || !(topLevelItem instanceof Job)) {
-			logger.println(jobName + " is not a Job {" + topLevelItem + "}");
+		List<WaitedBuild> buildsToWaitFor = findBuildsToWaitFor(build, envVars, logger);
+		if(buildsToWaitFor == null) {
 			return false;
 		}
 
-		int buildNumber = Integer.parseInt(envVars.expand(this.buildNumber));
-
-		Job job = (Job) topLevelItem;
-		Run buildToWaitFor = job.getBuildByNumber(buildNumber);
-		boolean waitResult;
-		while(true) {
-			waitResult = waitForBuildToFinish(listener, buildToWaitFor);
-			RetriedAction retriedAction = buildToWaitFor.getAction(RetriedAction.class);
-			if(retriedAction == null) {
-				break;
-			} else {
-				listener.getLogger().print("Build ");
-				listener.hyperlink("../../../"+buildToWaitFor.getUrl(), buildToWaitFor.getDisplayName());
-				listener.getLogger().println(" was retried. Looking for retried build.");
-				buildToWaitFor = retriedAction.findBuild(listener, numberRetries);
-				if(buildToWaitFor == null) {
-					listener.getLogger().println("Never found the retried build. It might have been canceled before it left the queue or is stuck in the queue.");
-					throw new RuntimeException("Auto retry job never started.");
-				}
-
-				listener.getLogger().print("Found retried build: ");
-				listener.hyperlink("../../../"+buildToWaitFor.getUrl(), buildToWaitFor.getDisplayName());
-				listener.getLogger().println();
-			}
+		boolean waitResult = waitForBuildsToFinish(listener, buildsToWaitFor);
+		if(!waitResult) {
+			return false;
 		}
 
-		if(!waitResult) {
-			listener.hyperlink(getRootUrl() + buildToWaitFor.getUrl(), buildToWaitFor.getFullDisplayName());
-			logger.println(" didn't finish");
-		} else {
-			injectPropertiesFile(build, buildToWaitFor);
+		List<Map<String, String>> properties = copyArtifactsAndReadProperties(listener, build, buildsToWaitFor);
+		Map<String, String> inject = new LinkedHashMap<String, String>();
+		for (Map<String, String> buildProperties : properties) {
+			inject.putAll(buildProperties);
+		}
+		if(propertiesFileToInject != null && !propertiesFileToInject.isEmpty()) {
+			injectProperties(build, inject);
+		}
 
+		boolean allPassed = true;
+		for (WaitedBuild waitedBuild : buildsToWaitFor) {
+			Run buildToWaitFor = waitedBuild.run;
 			Result downstreamResult = buildToWaitFor.getResult();
 			if(copyBuildResult) {
 				build.setResult(downstreamResult);
-				listener.getLogger().println("Downstream build ended with the status: " + downstreamResult);
+				listener.getLogger().println(buildToWaitFor.getFullDisplayName() + " ended with the status: " + downstreamResult);
 				if(downstreamResult.isWorseOrEqualTo(Result.FAILURE) && failOnFailure) {
 					listener.error("Downstream build failed. Will not continue this build.");
 					waitResult = false; //don't continue with other jobs
 				}
 			}
-			logger.println("Copying artifacts from downstream build.");
-			copyArtifacts(filesToCopy, buildToWaitFor, listener, build);
 
-			String statusActionValue;
+			waitedBuild.timing.completed(buildToWaitFor);
+			DownstreamTimingsAction.addTiming(build, waitedBuild.timing);
+			TriggerMetrics.get().completed(waitedBuild.timing);
+
 			if(downstreamResult.isWorseOrEqualTo(Result.FAILURE)) {
-				statusActionValue = "false";
+				allPassed = false;
 				if (numberLogLinesToCopyOnFailure > 0) {
 
-					@SuppressWarnings("unchecked")
-					List<String> log = buildToWaitFor.getLog(numberLogLinesToCopyOnFailure+1); //Add one more because it adds the "truncated X lines" as the first line
+					List<String> log = LogTail.tailLines(buildToWaitFor, numberLogLinesToCopyOnFailure);
 
-					int numberPrinting = log.size() >= numberLogLinesToCopyOnFailure ? numberLogLinesToCopyOnFailure : log.size();
-					logger.println(buildToWaitFor.getFullDisplayName() + " failed. Here's the last " + numberPrinting + " console lines:");
+					logger.println(buildToWaitFor.getFullDisplayName() + " failed. Here's the last " + log.size() + " console lines:");
 					for (String s : log) {
 						logger.println("["+buildToWaitFor.getFullDisplayName()+"]"+s);
 					}
 				}
-			} else {
-				statusActionValue = "true";
-			}
-			if(statusVariableName != null && !statusVariableName.isEmpty()) {
-				build.addAction(new EnvAction(statusVariableName, statusActionValue));
 			}
 		}
+		if(statusVariableName != null && !statusVariableName.isEmpty()) {
+			build.addAction(new EnvAction(statusVariableName, String.valueOf(allPassed)));
+		}
 		return waitResult;
 	}
 
-	private void injectPropertiesFile(AbstractBuild build, Run buildToWaitFor) throws IOException, InterruptedException {
-		if(buildToWaitFor instanceof AbstractBuild && propertiesFileToInject != null && !propertiesFileToInject.isEmpty()) {
-			FilePath filePath = new FilePath(((AbstractBuild)buildToWaitFor).getWorkspace(), propertiesFileToInject);
-			Properties propertiesToInject = new Properties();
-			InputStream read = filePath.read();
-			try {
-				propertiesToInject.load(read);
-			} finally {
-				read.close();
+	/**
+	 * The build number can be a single number, or a comma or newline separated list of builds to wait for.
+	 * Each entry is either a build number of the configured job, a "jobName#buildNumber" pair,
+	 * or a "queue:&lt;id&gt;" set by {@link TriggerJobBuildStep} for a build that hadn't left the queue yet.
+	 * Queued builds are waited on until they start, sharing the retries * delay the builds get to finish.
+	 * @return The builds, or null if one of them doesn't exist or didn't leave the queue in time.
+	 */
+	private List<WaitedBuild> findBuildsToWaitFor(AbstractBuild<?, ?> build, EnvVars envVars, PrintStream logger) throws InterruptedException {
+		String defaultJobName = envVars.expand(this.jobName);
+		long queueDeadline = retries == 0 ? Long.MAX_VALUE : System.currentTimeMillis() + (long) retries * delay;
+
+		List<WaitedBuild> result = new ArrayList<WaitedBuild>();
+		Map<String, Integer> buildsPerJob = new HashMap<String, Integer>();
+		for (String entry : envVars.expand(this.buildNumber).split("[,\\n]")) {
+			entry = entry.trim();
+			if(entry.isEmpty()) {
+				continue;
 			}
-			Map<String, String> inject = new HashMap<String, String>(propertiesToInject.size());
-			for (Map.Entry<Object, Object> entry : propertiesToInject.entrySet()) {
-				inject.put((String)entry.getKey(), (String)entry.getValue());
+			String jobName = defaultJobName;
+			String directoryName = this.jobName;
+			String buildNumber = entry;
+			int separator = entry.lastIndexOf('#');
+			if(separator >= 0) {
+				jobName = entry.substring(0, separator).trim();
+				directoryName = jobName;
+				buildNumber = entry.substring(separator + 1).trim();
 			}
-			build.addAction(new EnvMapAction(inject));
-			if(build instanceof MatrixBuild) {
-				List<ParameterValue> newParameters = new ArrayList<ParameterValue>();
-				ParametersAction action = build.getAction(ParametersAction.class);
-				if(action != null) {
-					List<ParameterValue> originalParameters = action.getParameters();
-					if(originalParameters != null) {
-						newParameters.addAll(originalParameters);
-					}
-					build.getActions().remove(action);
+
+			Run run;
+			if(QueuedBuildRegistry.isQueueReference(buildNumber)) {
+				run = awaitQueuedBuild(build, buildNumber, jobName, queueDeadline, logger);
+				if(run == null) {
+					return null;
+				}
+			} else {
+				Job waitedJob = JobIndex.findJob(jobName);
+				if(waitedJob == null) {
+					logger.println(jobName + " is not a Job");
+					return null;
 				}
-				for (Map.Entry<String, String> entry : inject.entrySet()) {
-					newParameters.add(new StringParameterValue(entry.getKey(), entry.getValue(), "Injected by " + this.getClass().getSimpleName()));
+				run = waitedJob.getBuildByNumber(Integer.parseInt(buildNumber));
+				if(run == null) {
+					logger.println(jobName + " doesn't have a build #" + buildNumber);
+					return null;
 				}
-				build.addAction(new ParametersAction(newParameters));
 			}
+			Job job = run.getParent();
+
+			Integer count = buildsPerJob.get(directoryName);
+			buildsPerJob.put(directoryName, count == null ? 1 : count + 1);
+			result.add(new WaitedBuild(run, directoryName, new DownstreamTiming(job.getFullName())));
+		}
+
+		//Builds of the same job are copied into separate directories so their artifacts don't overwrite each other.
+		for (WaitedBuild waitedBuild : result) {
+			if(buildsPerJob.get(waitedBuild.directoryName) > 1) {
+				waitedBuild.directoryName = waitedBuild.directoryName + "/" + waitedBuild.run.getNumber();
+			}
+		}
+		return result;
+	}
+
+	private Run awaitQueuedBuild(AbstractBuild<?, ?> build, String queueReference, String jobName, long deadline, PrintStream logger) throws InterruptedException {
+		logger.println("Waiting for " + queueReference + " to leave the queue.");
+		String projectName = null;
+		if(jobName != null && !jobName.trim().isEmpty()) {
+			Job job = JobIndex.findJob(jobName);
+			projectName = job == null ? jobName : job.getFullName();
+		}
+		long timeout = deadline == Long.MAX_VALUE ? Long.MAX_VALUE : Math.max(0, deadline - System.currentTimeMillis());
+		try {
+			Run run = QueuedBuildRegistry.awaitStart(queueReference, projectName, timeout);
+			if(run == null) {
+				logger.println("Unknown queue item " + queueReference + ". It may have been queued before Jenkins restarted.");
+				return null;
+			}
+
+			DownstreamBuildsAction.addDownstreamBuild(build, run);
+			return run;
+		} catch (ExecutionException e) {
+			logger.println(queueReference + " couldn't be started: " + e.getMessage());
+		} catch (CancellationException e) {
+			logger.println(queueReference + " was canceled before it started.");
+		} catch (TimeoutException e) {
+			logger.println(queueReference + " didn't leave the queue within " + Util.getTimeSpanString((long) retries * delay) + ". It may be blocked, e.g. its job is disabled or no node can run it.");
+		} catch (IllegalArgumentException e) {
+			logger.println(e.getMessage());
 		}
+		return null;
 	}
 
-	private boolean waitForBuildToFinish(final BuildListener listener, final Run buildToWaitFor) throws IOException {
+	/**
+	 * Waits for all the builds at once, following each one to its retried build if it was retried.
+	 * Each build gets retries * delay to finish, starting over when it's retried.
+	 * @return False if any of the builds didn't finish in time.
+	 */
+	private boolean waitForBuildsToFinish(BuildListener listener, List<WaitedBuild> buildsToWaitFor) throws InterruptedException, IOException {
 		PrintStream logger = listener.getLogger();
+		Map<Run, LogMirror> mirrors = new HashMap<Run, LogMirror>();
+		List<WaitedBuild> pending = new LinkedList<WaitedBuild>(buildsToWaitFor);
+		for (WaitedBuild waitedBuild : pending) {
+			startWaiting(listener, waitedBuild, mirrors);
+		}
 
-		logger.print("Waiting for build ");
-		listener.hyperlink(getRootUrl() + buildToWaitFor.getUrl(), buildToWaitFor.getFullDisplayName());
-		logger.println();
+		while(true) {
+			Iterator<WaitedBuild> iterator = pending.iterator();
+			while(iterator.hasNext()) {
+				WaitedBuild waitedBuild = iterator.next();
+				Run buildToWaitFor = waitedBuild.run;
+				if(buildToWaitFor.isBuilding()) {
+					continue;
+				}
+
+				LogMirror mirror = mirrors.remove(buildToWaitFor);
+				if(mirror != null) {
+					mirror.finish();
+				}
+
+				RetriedAction retriedAction = buildToWaitFor.getAction(RetriedAction.class);
+				if(retriedAction == null) {
+					iterator.remove();
+					continue;
+				}
+
+				listener.getLogger().print("Build ");
+				listener.hyperlink("../../../"+buildToWaitFor.getUrl(), buildToWaitFor.getDisplayName());
+				listener.getLogger().println(" was retried. Looking for retried build.");
+				long lookupStart = System.currentTimeMillis();
+				buildToWaitFor = RetriedAction.findLatestRetry(retriedAction.findBuild(listener, numberRetries));
+				long lookupMillis = System.currentTimeMillis() - lookupStart;
+				waitedBuild.timing.retryLookup(lookupMillis);
+				TriggerMetrics.get().retryLookedUp(lookupMillis);
+				if(buildToWaitFor == null) {
+					listener.getLogger().println("Never found the retried build. It might have been canceled before it left the queue or is stuck in the queue.");
+					throw new RuntimeException("Auto retry job never started.");
+				}
+
+				listener.getLogger().print("Found retried build: ");
+				listener.hyperlink("../../../"+buildToWaitFor.getUrl(), buildToWaitFor.getDisplayName());
+				listener.getLogger().println();
+				waitedBuild.run = buildToWaitFor;
+				startWaiting(listener, waitedBuild, mirrors);
+			}
+
+			if(pending.isEmpty()) {
+				break;
+			}
+
+			long now = System.currentTimeMillis();
+			long deadline = Long.MAX_VALUE;
+			List<Run> running = new ArrayList<Run>(pending.size());
+			for (WaitedBuild waitedBuild : pending) {
+				deadline = Math.min(deadline, waitedBuild.deadline);
+				running.add(waitedBuild.run);
+			}
+			if(deadline <= now) {
+				for (WaitedBuild waitedBuild : pending) {
+					if(waitedBuild.deadline <= now) {
+						listener.hyperlink(getRootUrl() + waitedBuild.run.getUrl(), waitedBuild.run.getFullDisplayName());
+						logger.println(" didn't finish");
+					}
+				}
+				return false;
+			}
 
-		Waiter wait = new Waiter(retries, delay);
-		boolean result = wait.retryUntil(new Waiter.Predicate() {
-			public boolean call() {
-				return !buildToWaitFor.isBuilding();
+			//The completion listener wakes us up as soon as a build finishes, and its shared checker covers a missed completion event,
+			//so without a mirror there's no reason to wake up until a build finishes or we give up.
+			long timeout = deadline - now;
+			if(!mirrors.isEmpty()) {
+				timeout = Math.min(timeout, LogMirror.INTERVAL_MILLIS);
+			}
+			RunCompletionListener.awaitAnyCompletion(running, timeout);
+			for (LogMirror mirror : mirrors.values()) {
+				mirror.update();
 			}
-		});
+		}
 
 		logger.println("... Done!");
-		return result;
+		return true;
 	}
 
-	public static String getRootUrl() {
-		String rootUrl = Hudson.getInstance().getRootUrl();
-		return rootUrl == null ? "/" : rootUrl;
+	private void startWaiting(BuildListener listener, WaitedBuild waitedBuild, Map<Run, LogMirror> mirrors) {
+		PrintStream logger = listener.getLogger();
+		logger.print("Waiting for build ");
+		listener.hyperlink(getRootUrl() + waitedBuild.run.getUrl(), waitedBuild.run.getFullDisplayName());
+		logger.println();
+
+		waitedBuild.deadline = retries == 0 ? Long.MAX_VALUE : System.currentTimeMillis() + (long) retries * delay;
+		if(mirrorDownstreamLog) {
+			mirrors.put(waitedBuild.run, new LogMirror(waitedBuild.run, logger));
+		}
 	}
 
-	private void copyArtifacts(String filesToCopy, Run waitedForBuild, BuildListener listener, AbstractBuild<?, ?> currentBuild) {
-		if (filesToCopy == null || filesToCopy.isEmpty() || waitedForBuild == null) {
-			return;
+	/**
+	 * Copies the artifacts and reads the properties files of all the builds in parallel.
+	 * @return The properties of each build, in the same order as the builds.
+	 */
+	private List<Map<String, String>> copyArtifactsAndReadProperties(BuildListener listener, final AbstractBuild<?, ?> build, List<WaitedBuild> waitedBuilds) throws IOException, InterruptedException {
+		List<Map<String, String>> result = new ArrayList<Map<String, String>>(waitedBuilds.size());
+		if(waitedBuilds.size() == 1) {
+			result.add(copyArtifactsAndReadProperties(listener, build, waitedBuilds.get(0)));
+			return result;
 		}
-		DirectoryScanner scanner = new DirectoryScanner();
-		scanner.setIncludes(new String[]{filesToCopy});
-		scanner.setBasedir(waitedForBuild.getArtifactsDir());
-		scanner.scan();
-		String[] includedFiles = scanner.getIncludedFiles();
 
-		for (String includedFile : includedFiles) {
-			try {
-				FilePath artifactDirectory = currentBuild.getWorkspace();
-				if (!artifactDirectory.child(jobName).exists()) {
-					listener.getLogger().println("Directory: " + jobName + " does not exist. Creating directory: " + jobName);
-					artifactDirectory.child(jobName).mkdirs();
-					listener.getLogger().println("Created directory: " + jobName);
+		//Each task logs to its own buffer, printed in order as the tasks finish, so their output isn't interleaved.
+		List<ByteArrayOutputStream> outputs = new ArrayList<ByteArrayOutputStream>(waitedBuilds.size());
+		List<Future<Map<String, String>>> futures = new ArrayList<Future<Map<String, String>>>(waitedBuilds.size());
+		for (final WaitedBuild waitedBuild : waitedBuilds) {
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			outputs.add(output);
+			final BuildListener taskListener = new StreamBuildListener(output, build.getCharset());
+			futures.add(Computer.threadPoolForRemoting.submit(new Callable<Map<String, String>>() {
+				public Map<String, String> call() throws IOException, InterruptedException {
+					return copyArtifactsAndReadProperties(taskListener, build, waitedBuild);
 				}
+			}));
+		}
 
-				File sourceFile = new File(waitedForBuild.getArtifactsDir(), includedFile);
-				FilePath copiedArtifact = artifactDirectory.child(jobName).child(sourceFile.getName());
+		IOException failure = null;
+		try {
+			for(int i = 0; i < futures.size(); i++) {
 				try {
-					copiedArtifact.copyFrom(sourceFile.toURL());
-					listener.getLogger().println("Copied artifact: '" + includedFile + "' to '" + artifactDirectory.absolutize().toString() + "'");
-				} catch (FileNotFoundException e) {
-					listener.error(e.getMessage());
+					result.add(futures.get(i).get());
+				} catch (ExecutionException e) {
+					if(failure == null) {
+						failure = e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+					}
+				} finally {
+					outputs.get(i).writeTo(listener.getLogger());
 				}
-			} catch (InterruptedException e) {
-				e.printStackTrace(listener.getLogger());
-				break;
-			} catch (IOException e) {
-				e.printStackTrace(listener.getLogger());
 			}
+		} catch (InterruptedException e) {
+			for (Future<Map<String, String>> future : futures) {
+				future.cancel(true);
+			}
+			throw e;
+		}
+		if(failure != null) {
+			throw failure;
+		}
+		return result;
+	}
+
+	private Map<String, String> copyArtifactsAndReadProperties(BuildListener listener, AbstractBuild<?, ?> build, WaitedBuild waitedBuild) throws IOException, InterruptedException {
+		Map<String, String> properties = readPropertiesFile(waitedBuild.run);
+		listener.getLogger().println("Copying artifacts from downstream build " + waitedBuild.run.getFullDisplayName() + ".");
+		copyArtifacts(filesToCopy, waitedBuild, listener, build);
+		return properties;
+	}
+
+	private Map<String, String> readPropertiesFile(Run buildToWaitFor) throws IOException, InterruptedException {
+		if(propertiesFileToInject == null || propertiesFileToInject.isEmpty()) {
+			return Collections.emptyMap();
+		}
+
+		PropertiesFileReader reader = new PropertiesFileReader(propertiesFileToInject, PropertiesFileReader.DEFAULT_MAX_BYTES);
+		if(injectPropertiesFromArtifacts) {
+			//The artifacts are on the master's disk, so no remote call is needed.
+			return reader.invoke(buildToWaitFor.getArtifactsDir(), null);
+		} else if(buildToWaitFor instanceof AbstractBuild) {
+			return ((AbstractBuild)buildToWaitFor).getWorkspace().act(reader);
+		}
+		return Collections.emptyMap();
+	}
+
+	private void injectProperties(AbstractBuild build, Map<String, String> inject) {
+		build.addAction(new EnvMapAction(inject));
+		if(build instanceof MatrixBuild) {
+			List<ParameterValue> newParameters = new ArrayList<ParameterValue>();
+			ParametersAction action = build.getAction(ParametersAction.class);
+			if(action != null) {
+				List<ParameterValue> originalParameters = action.getParameters();
+				if(originalParameters != null) {
+					newParameters.addAll(originalParameters);
+				}
+				build.getActions().remove(action);
+			}
+			for (Map.Entry<String, String> entry : inject.entrySet()) {
+				newParameters.add(new StringParameterValue(entry.getKey(), entry.getValue(), "Injected by " + this.getClass().getSimpleName()));
+			}
+			build.addAction(new ParametersAction(newParameters));
+		}
+	}
+
+	public static String getRootUrl() {
+		String rootUrl = Hudson.getInstance().getRootUrl();
+		return rootUrl == null ? "/" : rootUrl;
+	}
+
+	private void copyArtifacts(String filesToCopy, WaitedBuild waitedBuild, BuildListener listener, AbstractBuild<?, ?> currentBuild) {
+		try {
+			FilePath targetDirectory = currentBuild.getWorkspace().child(waitedBuild.directoryName);
+			long start = System.currentTimeMillis();
+			long bytes = new ArtifactCopier(filesToCopy, bulkCopyArtifacts, incrementalCopyArtifacts).copy(waitedBuild.run, targetDirectory, listener);
+			if(bytes > 0) {
+				long elapsed = System.currentTimeMillis() - start;
+				waitedBuild.timing.artifactsCopied(bytes, elapsed);
+				TriggerMetrics.get().artifactsCopied(bytes, elapsed);
+			}
+		} catch (InterruptedException e) {
+			e.printStackTrace(listener.getLogger());
+		} catch (IOException e) {
+			e.printStackTrace(listener.getLogger());
+		}
+	}
+
+	/**
+	 * One of the builds being waited for. The run changes if the build is retried.
+	 */
+	private static class WaitedBuild {
+		private volatile Run run;
+		private String directoryName;
+		private final DownstreamTiming timing;
+		private long deadline;
+
+		public WaitedBuild(Run run, String directoryName, DownstreamTiming timing) {
+			this.run = run;
+			this.directoryName = directoryName;
+			this.timing = timing;
 		}
 	}
 
@@ -262,18 +486,32 @@ public class WaitForBuildStep extends Builder {
 					return FormValidation.ok();
 				}
 
-				int buildNumber = Integer.parseInt(value);
-				if(buildNumber <= 0) {
-					return FormValidation.error("Build Number must be a valid positive/non-zero number or an environment variable.");
-				}
-				TopLevelItem topLevelItem = Hudson.getInstance().getItem(jobName);
-				if(!(topLevelItem instanceof Job)) {
-					return FormValidation.warning("Cannot validate Build Number without a valid Job Name.");
-				}
+				for (String entry : value.split("[,\\n]")) {
+					entry = entry.trim();
+					if(entry.isEmpty()) {
+						continue;
+					}
+					if(QueuedBuildRegistry.isQueueReference(entry)) {
+						continue;
+					}
+					String entryJobName = jobName;
+					int separator = entry.lastIndexOf('#');
+					if(separator >= 0) {
+						entryJobName = entry.substring(0, separator).trim();
+						entry = entry.substring(separator + 1).trim();
+					}
 
-				Job job = (Job)topLevelItem;
-				if(job.getBuildByNumber(buildNumber) == null) {
-					return FormValidation.error("Build with given number does not exist for the given Job name.");
+					int buildNumber = Integer.parseInt(entry);
+					if(buildNumber <= 0) {
+						return FormValidation.error("Build Number must be a valid positive/non-zero number or an environment variable.");
+					}
+					Job job = JobIndex.findJob(entryJobName);
+					if(job == null) {
+						return FormValidation.warning("Cannot validate Build Number without a valid Job Name.");
+					}
+					if(job.getBuildByNumber(buildNumber) == null) {
+						return FormValidation.error("Build " + entryJobName + " #" + buildNumber + " does not exist.");
+					}
 				}
 			} catch(NumberFormatException e) {
 				return FormValidation.error("Build Number must be a valid positive/non-zero number or an environment variable.");
@@ -0,0 +1,75 @@
+package com.attask.jenkins;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class HistogramTest {
+	@Test
+	public void emptyHistogramReportsZero() {
+		Histogram histogram = new Histogram();
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getMean());
+		assertEquals(0, histogram.getP50());
+		assertEquals(0, histogram.getP99());
+	}
+
+	@Test
+	public void percentilesAreWithinTheBucketError() {
+		Histogram histogram = new Histogram();
+		for(int i = 1; i <= 100; i++) {
+			histogram.record(i);
+		}
+		assertEquals(100, histogram.getCount());
+		assertEquals(50, histogram.getMean());
+		assertEquals(100, histogram.getMax());
+		assertWithinBucket(50, histogram.getP50());
+		assertWithinBucket(90, histogram.getP90());
+		assertWithinBucket(99, histogram.getP99());
+	}
+
+	@Test
+	public void percentilesNeverExceedTheMax() {
+		Histogram histogram = new Histogram();
+		histogram.record(100);
+		assertEquals(100, histogram.getP50());
+		assertEquals(100, histogram.getP99());
+	}
+
+	@Test
+	public void percentilesSeparateTheTail() {
+		Histogram histogram = new Histogram();
+		for(int i = 0; i < 90; i++) {
+			histogram.record(10);
+		}
+		for(int i = 0; i < 10; i++) {
+			histogram.record(10000);
+		}
+		assertWithinBucket(10, histogram.getP50());
+		assertWithinBucket(10, histogram.getP90());
+		assertEquals(10000, histogram.getP99());
+	}
+
+	@Test
+	public void powersOfTwoAreExactBucketBounds() {
+		for(long value = 2; value <= 1L << 40; value <<= 1) {
+			Histogram histogram = new Histogram();
+			histogram.record(value);
+			histogram.record(Long.MAX_VALUE / 2);
+			assertEquals(value, histogram.getPercentile(0.5));
+		}
+	}
+
+	@Test
+	public void negativeValuesAreIgnored() {
+		Histogram histogram = new Histogram();
+		histogram.record(-5);
+		histogram.record(0);
+		assertEquals(1, histogram.getCount());
+		assertEquals(0, histogram.getP50());
+	}
+
+	private static void assertWithinBucket(long expected, long actual) {
+		assertTrue("Expected about " + expected + " but was " + actual, actual >= expected && actual <= expected * 1.2);
+	}
+}
@@ -0,0 +1,61 @@
+package com.attask.jenkins;
+
+import org.junit.Test;
+
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+public class JobIndexTest {
+	@Test
+	public void starMatchesWithinOneLevel() {
+		Pattern pattern = glob("shards/shard-*");
+		assertTrue(pattern.matcher("shards/shard-1").matches());
+		assertTrue(pattern.matcher("shards/shard-").matches());
+		assertFalse(pattern.matcher("shards/shard-1/child").matches());
+		assertFalse(pattern.matcher("other/shard-1").matches());
+	}
+
+	@Test
+	public void doubleStarMatchesAcrossLevels() {
+		Pattern pattern = glob("shards/**");
+		assertTrue(pattern.matcher("shards/shard-1").matches());
+		assertTrue(pattern.matcher("shards/nested/shard-1").matches());
+		assertFalse(pattern.matcher("shards").matches());
+	}
+
+	@Test
+	public void questionMarkMatchesOneCharacterWithinALevel() {
+		Pattern pattern = glob("shard-?");
+		assertTrue(pattern.matcher("shard-1").matches());
+		assertFalse(pattern.matcher("shard-10").matches());
+		assertFalse(pattern.matcher("shard/").matches());
+	}
+
+	@Test
+	public void regexCharactersAreLiteral() {
+		Pattern pattern = glob("a.b+(c)");
+		assertTrue(pattern.matcher("a.b+(c)").matches());
+		assertFalse(pattern.matcher("axbb(c)").matches());
+	}
+
+	@Test
+	public void plainNamesMatchOnlyThemselves() {
+		Pattern pattern = glob("build");
+		assertTrue(pattern.matcher("build").matches());
+		assertFalse(pattern.matcher("build-2").matches());
+	}
+
+	@Test
+	public void selectorsWithAPrefixArePatterns() {
+		assertTrue(JobIndex.isPattern("glob:a*"));
+		assertTrue(JobIndex.isPattern("regex:a.*"));
+		assertTrue(JobIndex.isPattern("view:All"));
+		assertTrue(JobIndex.isPattern("folder:shards"));
+		assertFalse(JobIndex.isPattern("shards/shard-1"));
+	}
+
+	private static Pattern glob(String glob) {
+		return Pattern.compile(JobIndex.globToRegex(glob));
+	}
+}
@@ -0,0 +1,119 @@
+package com.attask.jenkins;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+public class LogTailTest {
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void tailLinesReturnsTheLastLines() throws IOException {
+		File log = write("log", "one\ntwo\nthree\nfour\n", false);
+		assertEquals(Arrays.asList("three", "four"), LogTail.tailLines(log, UTF_8, 2));
+	}
+
+	@Test
+	public void tailLinesReturnsEverythingWhenThereAreFewerLines() throws IOException {
+		File log = write("log", "one\r\ntwo", false);
+		assertEquals(Arrays.asList("one", "two"), LogTail.tailLines(log, UTF_8, 10));
+	}
+
+	@Test
+	public void tailLinesReadsAcrossBlocks() throws IOException {
+		StringBuilder text = new StringBuilder();
+		for(int i = 0; i < 5000; i++) {
+			text.append("line ").append(i).append('\n');
+		}
+		File log = write("log", text.toString(), false);
+		assertEquals(Arrays.asList("line 4998", "line 4999"), LogTail.tailLines(log, UTF_8, 2));
+	}
+
+	@Test
+	public void tailLinesOfCompressedLog() throws IOException {
+		File log = write("log.gz", "one\ntwo\nthree\n", true);
+		assertEquals(Arrays.asList("two", "three"), LogTail.tailLines(log, UTF_8, 2));
+	}
+
+	@Test
+	public void tailLinesReadsNoMoreThanMaxBytes() throws IOException {
+		File log = write("log", "a very long first line\nshort\nlines\n", false);
+		assertEquals(Arrays.asList("short", "lines"), LogTail.tailLines(log, UTF_8, 3, 15));
+	}
+
+	@Test
+	public void tailLinesOfCompressedLogReadsNoMoreThanMaxBytes() throws IOException {
+		File log = write("log.gz", "a very long first line\nshort\nlines\n", true);
+		assertEquals(Arrays.asList("short", "lines"), LogTail.tailLines(log, UTF_8, 3, 15));
+	}
+
+	@Test
+	public void tailLinesKeepsALineStartingAtTheLimit() throws IOException {
+		File log = write("log", "first\nshort\nlines\n", false);
+		assertEquals(Arrays.asList("short", "lines"), LogTail.tailLines(log, UTF_8, 3, 12));
+	}
+
+	@Test
+	public void tailBytesReturnsTheWholeLogWhenItFits() throws IOException {
+		File log = write("log", "one\ntwo\n", false);
+		assertEquals("one\ntwo\n", LogTail.tailBytes(log, UTF_8, 100));
+	}
+
+	@Test
+	public void tailBytesStartsAtALineBreak() throws IOException {
+		//The cut falls between the two bytes of the last accented character on the first line.
+		File log = write("log", "first \u00e9\u00e9\u00e9\nsecond \u00e9\n", false);
+		assertEquals("second \u00e9\n", LogTail.tailBytes(log, UTF_8, 12));
+	}
+
+	@Test
+	public void tailBytesOfCompressedLogStartsAtALineBreak() throws IOException {
+		StringBuilder text = new StringBuilder();
+		for(int i = 0; i < 100; i++) {
+			text.append("\u00e9\u00e9\u00e9 ").append(i).append('\n');
+		}
+		File log = write("log.gz", text.toString(), true);
+		assertEquals("\u00e9\u00e9\u00e9 99\n", LogTail.tailBytes(log, UTF_8, 17));
+	}
+
+	@Test
+	public void findCleanStartSkipsThePartialLine() {
+		byte[] bytes = "tial line\nwhole line\n".getBytes(UTF_8);
+		assertEquals(10, LogTail.findCleanStart(bytes, 0, bytes.length));
+	}
+
+	@Test
+	public void findCleanStartWithoutALineBreakSkipsThePartialCharacter() {
+		byte[] bytes = "\u00e9\u00e9".getBytes(UTF_8);
+		//Starting at the second byte of the first '\u00e9'.
+		assertEquals(2, LogTail.findCleanStart(bytes, 1, bytes.length));
+		assertEquals(0, LogTail.findCleanStart(bytes, 0, bytes.length));
+	}
+
+	private File write(String name, String text, boolean compressed) throws IOException {
+		File file = folder.newFile(name);
+		OutputStream stream = new FileOutputStream(file);
+		if(compressed) {
+			stream = new GZIPOutputStream(stream);
+		}
+		try {
+			stream.write(text.getBytes(UTF_8));
+		} finally {
+			stream.close();
+		}
+		return file;
+	}
+}
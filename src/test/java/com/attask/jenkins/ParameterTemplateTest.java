@@ -0,0 +1,83 @@
+package com.attask.jenkins;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ParameterTemplateTest {
+	@Test
+	public void parsesNameValueLines() {
+		Map<String, String> properties = ParameterTemplate.parse("a=1\n b = 2 \n");
+		assertEquals(2, properties.size());
+		assertEquals("1", properties.get("a"));
+		assertEquals("2", properties.get("b"));
+	}
+
+	@Test
+	public void ignoresComments() {
+		Map<String, String> properties = ParameterTemplate.parse("# c=3\na=1 # the first\n");
+		assertEquals(1, properties.size());
+		assertEquals("1", properties.get("a"));
+	}
+
+	@Test
+	public void ignoresLinesWithoutEquals() {
+		Map<String, String> properties = ParameterTemplate.parse("no value here\na=1\n\n");
+		assertEquals(1, properties.size());
+		assertEquals("1", properties.get("a"));
+	}
+
+	@Test
+	public void commentedEqualsDoesNotLeakIntoTheNextLine() {
+		Map<String, String> properties = ParameterTemplate.parse("x # y=1\nz=2");
+		assertEquals(1, properties.size());
+		assertEquals("2", properties.get("z"));
+	}
+
+	@Test
+	public void valueMayContainEquals() {
+		assertEquals("b=c", ParameterTemplate.parse("a=b=c").get("a"));
+	}
+
+	@Test
+	public void trimsWindowsLineEndings() {
+		Map<String, String> properties = ParameterTemplate.parse("a=1\r\nb=2\r\n");
+		assertEquals("1", properties.get("a"));
+		assertEquals("2", properties.get("b"));
+	}
+
+	@Test
+	public void emptyValue() {
+		Map<String, String> properties = ParameterTemplate.parse("a=");
+		assertTrue(properties.containsKey("a"));
+		assertEquals("", properties.get("a"));
+	}
+
+	@Test
+	public void nullTextHasNoProperties() {
+		assertTrue(new ParameterTemplate(null).getProperties().isEmpty());
+	}
+
+	@Test
+	public void compileReusesTheCachedTemplateForTheSameText() {
+		ParameterTemplate cached = new ParameterTemplate("a=1");
+		assertSame(cached, ParameterTemplate.compile("a=1", cached));
+	}
+
+	@Test
+	public void compileTreatsNullAsEmpty() {
+		ParameterTemplate empty = new ParameterTemplate(null);
+		assertSame(empty, ParameterTemplate.compile("", empty));
+		assertSame(empty, ParameterTemplate.compile(null, empty));
+	}
+
+	@Test
+	public void compileParsesChangedText() {
+		ParameterTemplate cached = new ParameterTemplate("a=1");
+		ParameterTemplate compiled = ParameterTemplate.compile("a=2", cached);
+		assertNotSame(cached, compiled);
+		assertEquals("2", compiled.getProperties().get("a"));
+	}
+}